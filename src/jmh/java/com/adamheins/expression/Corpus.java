@@ -0,0 +1,73 @@
+package com.adamheins.expression;
+
+
+/**
+ * Expressions that benchmarks are run over, from short ones typed by hand to long and deeply
+ * nested ones. None of them have variables.
+ */
+public enum Corpus {
+    
+    /** A few operators, like most expressions typed into the calculator. */
+    SHORT("3.25*4-sqrt(2)/7"),
+    
+    /** Many terms with every kind of operator, and no nesting. */
+    LONG(repeat("3.25*4-sqrt(2)/7+2^10-5!%3+ln(2.5)*sin(0.5)", 32)),
+    
+    /** Parentheses nested many levels deep. */
+    NESTED(nest("1.5", 64));
+    
+    
+    // The string of math.
+    private final String expression;
+    
+    
+    private Corpus(String expression) {
+        this.expression = expression;
+    }
+    
+    
+    /**
+     * Get the string of math.
+     * 
+     * @return The expression.
+     */
+    String getExpression() {
+        return expression;
+    }
+    
+    
+    /**
+     * Adds a term to itself a number of times.
+     * 
+     * @param term The term.
+     * @param count Number of times the term appears.
+     * 
+     * @return The sum of the terms.
+     */
+    private static String repeat(String term, int count) {
+        StringBuilder builder = new StringBuilder(term);
+        for (int i = 1; i < count; i++)
+            builder.append('+').append(term);
+        return builder.toString();
+    }
+    
+    
+    /**
+     * Nests an operand in a number of levels of parentheses, each with an operator of its own.
+     * 
+     * @param operand The innermost operand.
+     * @param depth Number of levels.
+     * 
+     * @return The nested expression.
+     */
+    private static String nest(String operand, int depth) {
+        String[] operators = {"+", "*", "-", "/"};
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            builder.append(i + 2).append(operators[i % operators.length]).append('(');
+        builder.append(operand);
+        for (int i = 0; i < depth; i++)
+            builder.append(')');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.adamheins.expression;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * Measures evaluating strings of math from start to end, the way the calculator does, with and
+ * without the cache of compiled expressions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EndToEndBenchmark {
+    
+    @Param
+    private Corpus corpus;
+    
+    @Param({"false", "true"})
+    private boolean cached;
+    
+    // Capacity of the cache, which holds every expression of the corpus.
+    private static final int CACHE_CAPACITY = 64;
+    
+    // Cache that was in use before the benchmark.
+    private ExpressionCache previousCache;
+    
+    
+    @Setup
+    public void setUp() {
+        previousCache = ExpressionEvaluator.getCache();
+        ExpressionEvaluator.setCache(cached ? new ExpressionCache(CACHE_CAPACITY) : null);
+    }
+    
+    
+    @TearDown
+    public void tearDown() {
+        ExpressionEvaluator.setCache(previousCache);
+    }
+    
+    
+    @Benchmark
+    public String evaluate() throws ExpressionException {
+        return ExpressionEvaluator.evaluate(corpus.getExpression());
+    }
+}
@@ -0,0 +1,68 @@
+package com.adamheins.expression;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apfloat.Apfloat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Measures each operator on its own at several precisions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OperatorBenchmark {
+    
+    @Param
+    private Operator operator;
+    
+    @Param({"21", "100", "1000", "10000"})
+    private int precision;
+    
+    // Operands of the operator.
+    private Apfloat left;
+    private Apfloat right;
+    
+    // Context the operator is evaluated in.
+    private EvaluationContext context;
+    
+    
+    @Setup
+    public void setUp() {
+        
+        // Factorials are only defined for integers, and inverse sines and cosines on the unit
+        // interval. Conversions between degrees and radians skip operands below one.
+        switch (operator) {
+        case FACTORIAL:
+            right = new Apfloat(100, precision);
+            break;
+        case ASIN:
+        case ACOS:
+            right = new Apfloat("0.7", precision);
+            break;
+        default:
+            right = new Apfloat("1.7", precision);
+        }
+        left = new Apfloat(3, precision);
+        context = new EvaluationContext();
+        context.setPrecision(precision);
+    }
+    
+    
+    @Benchmark
+    public Apfloat apply() throws ExpressionException {
+        if (operator.getArity() == 2)
+            context.push(left);
+        context.push(right);
+        operator.evaluate(context);
+        return context.pop();
+    }
+}
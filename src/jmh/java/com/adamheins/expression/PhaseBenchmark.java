@@ -0,0 +1,91 @@
+package com.adamheins.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apfloat.Apfloat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Measures each phase of evaluating a string of math on its own: tokenizing, shunting to
+ * postfix, running the postfix program and formatting the result. The input of each phase is
+ * prepared ahead of time from the output of the one before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhaseBenchmark {
+    
+    @Param
+    private Corpus corpus;
+    
+    @Param({"21", "100", "1000"})
+    private int precision;
+    
+    // Tokens of the expression.
+    private List<Shuntable> tokens;
+    
+    // Postfix program of the expression, as shunted, without optimizations.
+    private Evaluatable[] program;
+    
+    // Value of the expression.
+    private Apfloat value;
+    
+    
+    @Setup
+    public void setUp() throws ExpressionException {
+        tokens = tokenize();
+        program = ExpressionEvaluator.convertToPostfix(tokens).toArray(new Evaluatable[0]);
+        value = ExpressionEvaluator.evaluateToValue(corpus.getExpression(), precision).getValue();
+    }
+    
+    
+    @Benchmark
+    public List<Shuntable> tokenize() throws ExpressionException {
+        
+        // Literals are read at the benchmark precision, so that the program computes with it.
+        List<Shuntable> tokens = new ArrayList<>();
+        TokenCursor cursor = Tokenizer.cursor(corpus.getExpression(),
+                Collections.<Variable>emptyList(), precision);
+        Shuntable token;
+        while ((token = cursor.next()) != null)
+            tokens.add(token);
+        return tokens;
+    }
+    
+    
+    @Benchmark
+    public Object shunt() {
+        return ExpressionEvaluator.convertToPostfix(tokens);
+    }
+    
+    
+    @Benchmark
+    public Apfloat evaluatePostfix() throws ExpressionException {
+        EvaluationContext context = EvaluationContext.forCurrentThread();
+        int previousPrecision = context.setPrecision(precision);
+        try {
+            for (Evaluatable op : program)
+                op.evaluate(context);
+            return context.pop();
+        } finally {
+            context.setPrecision(previousPrecision);
+        }
+    }
+    
+    
+    @Benchmark
+    public String format() {
+        return ExpressionEvaluator.format(value, precision);
+    }
+}
@@ -0,0 +1,37 @@
+package com.adamheins.calculator;
+
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.adamheins.expression.FileEvaluator;
+
+/**
+ * Command line calculator that evaluates a file of expressions, one per line, without a GUI.
+ * 
+ * @author Adam Heins
+ *
+ */
+public class BatchCalculator {
+
+	/**
+	 * Main method.
+	 * @param args Path of the file of expressions and path of the file to write the results to.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: BatchCalculator <input file> <output file>");
+			System.exit(1);
+		}
+		
+		Path input = Paths.get(args[0]);
+		Path output = Paths.get(args[1]);
+		try {
+			new FileEvaluator().evaluate(input, output);
+		} catch (IOException e) {
+			System.err.println("Could not evaluate " + input + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
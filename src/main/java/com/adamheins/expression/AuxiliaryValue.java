@@ -0,0 +1,85 @@
+package com.adamheins.expression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+
+/**
+ * Values that Operators need as part of their computations, such as ln(10) for base 10
+ * logarithms. They are expensive to compute at high precision but never change, so each is
+ * computed once per precision and cached.
+ */
+enum AuxiliaryValue {
+    
+    /** Natural logarithm of 10. */
+    LN_10 {
+        @Override
+        Apfloat compute(long precision) {
+            return ApfloatMath.log(new Apfloat(10, precision));
+        }
+    },
+    
+    /** Pi. */
+    PI {
+        @Override
+        Apfloat compute(long precision) {
+            return ApfloatMath.pi(precision);
+        }
+    },
+    
+    /** Radians per degree, pi/180. */
+    RADIANS_PER_DEGREE {
+        @Override
+        Apfloat compute(long precision) {
+            return PI.getValue(precision).divide(new Apfloat(180, precision));
+        }
+    },
+    
+    /** Degrees per radian, 180/pi. */
+    DEGREES_PER_RADIAN {
+        @Override
+        Apfloat compute(long precision) {
+            return new Apfloat(180, precision).divide(PI.getValue(precision));
+        }
+    };
+    
+    
+    // Values computed so far, keyed by precision. Operators ask for them at the working
+    // precision of their expression, so there is one for each precision in use.
+    private final Map<Long, Apfloat> values = new ConcurrentHashMap<>();
+    
+    
+    /**
+     * Computes the value.
+     * 
+     * @param precision Precision of the value, in digits.
+     * 
+     * @return The value.
+     */
+    abstract Apfloat compute(long precision);
+    
+    
+    /**
+     * Get the value at a precision, computing it the first time it is needed.
+     * 
+     * @param precision Precision of the value, in digits.
+     * 
+     * @return The value.
+     */
+    Apfloat getValue(long precision) {
+        Apfloat value = values.get(precision);
+        if (value == null) {
+            
+            // Computed outside of the map, since a value may depend on another, as the ratios
+            // depend on pi.
+            value = compute(precision);
+            Apfloat previous = values.putIfAbsent(precision, value);
+            if (previous != null)
+                value = previous;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,133 @@
+package com.adamheins.expression;
+
+import java.util.AbstractList;
+import java.util.List;
+
+
+/**
+ * The results of evaluating a batch of expressions, in the same order as the expressions. An
+ * expression that fails to evaluate does not abort the batch; its exception is kept in place of
+ * its value.
+ */
+public final class BatchResult {
+    
+    // Value of each expression, or null if it failed.
+    private final String[] values;
+    
+    // Exception thrown by each expression, or null if it succeeded.
+    private final ExpressionException[] errors;
+    
+    
+    /**
+     * Create a new BatchResult for a batch of expressions.
+     * 
+     * @param size Number of expressions in the batch.
+     */
+    BatchResult(int size) {
+        this.values = new String[size];
+        this.errors = new ExpressionException[size];
+    }
+    
+    
+    /**
+     * Records the value of an expression.
+     * 
+     * @param index Index of the expression in the batch.
+     * @param value The value of the expression.
+     */
+    void setValue(int index, String value) {
+        values[index] = value;
+    }
+    
+    
+    /**
+     * Records the exception thrown by an expression.
+     * 
+     * @param index Index of the expression in the batch.
+     * @param error The exception thrown while evaluating the expression.
+     */
+    void setError(int index, ExpressionException error) {
+        errors[index] = error;
+    }
+    
+    
+    /**
+     * Get the number of expressions in the batch.
+     * 
+     * @return The number of expressions.
+     */
+    public int size() {
+        return values.length;
+    }
+    
+    
+    /**
+     * Checks if an expression was evaluated successfully.
+     * 
+     * @param index Index of the expression in the batch.
+     * 
+     * @return True if the expression has a value, false if it failed.
+     */
+    public boolean isSuccess(int index) {
+        return errors[index] == null;
+    }
+    
+    
+    /**
+     * Get the value of an expression.
+     * 
+     * @param index Index of the expression in the batch.
+     * 
+     * @return The value of the expression, or null if it failed.
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+    
+    
+    /**
+     * Get the exception thrown by an expression.
+     * 
+     * @param index Index of the expression in the batch.
+     * 
+     * @return The exception thrown while evaluating the expression, or null if it succeeded.
+     */
+    public ExpressionException getError(int index) {
+        return errors[index];
+    }
+    
+    
+    /**
+     * Get the number of expressions that failed.
+     * 
+     * @return The number of failed expressions.
+     */
+    public int getErrorCount() {
+        int count = 0;
+        for (ExpressionException error : errors) {
+            if (error != null)
+                count++;
+        }
+        return count;
+    }
+    
+    
+    /**
+     * Get the values of the expressions, with null in place of the ones that failed.
+     * 
+     * @return An unmodifiable view of the values.
+     */
+    public List<String> getValues() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return values[index];
+            }
+            
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
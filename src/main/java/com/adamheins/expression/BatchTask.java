@@ -0,0 +1,81 @@
+package com.adamheins.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Evaluates a range of a batch of expressions on a fork/join pool. A task keeps forking off the
+ * upper half of its range only while the pool has few queued tasks to steal, so that chunks
+ * are as large as possible while idle workers still have something to take.
+ */
+final class BatchTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    
+    // Smallest range worth forking off as a task of its own.
+    private static final int MIN_CHUNK_SIZE = 16;
+    
+    // Number of queued tasks beyond which a task stops splitting.
+    private static final int MAX_SURPLUS_TASKS = 3;
+    
+    // The expressions of the batch.
+    private final String[] expressions;
+    
+    // Results of the whole batch.
+    private final BatchResult result;
+    
+    // Range of expressions to evaluate.
+    private final int start;
+    private final int end;
+    
+    
+    /**
+     * Create a new BatchTask.
+     * 
+     * @param expressions The expressions of the batch.
+     * @param result Results of the whole batch, stored at the index of each expression.
+     * @param start Index of the first expression to evaluate.
+     * @param end Index after the last expression to evaluate.
+     */
+    BatchTask(String[] expressions, BatchResult result, int start, int end) {
+        this.expressions = expressions;
+        this.result = result;
+        this.start = start;
+        this.end = end;
+    }
+    
+    
+    @Override
+    protected void compute() {
+        int high = end;
+        List<BatchTask> forked = null;
+        
+        // Split off work for idle workers to steal.
+        while (high - start > MIN_CHUNK_SIZE && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+            int middle = (start + high) >>> 1;
+            BatchTask task = new BatchTask(expressions, result, middle, high);
+            task.fork();
+            if (forked == null)
+                forked = new ArrayList<>();
+            forked.add(task);
+            high = middle;
+        }
+        
+        EvaluationContext context = EvaluationContext.forCurrentThread();
+        for (int i = start; i < high; i++) {
+            try {
+                CompiledExpression expression = ExpressionEvaluator.compile(expressions[i]);
+                result.setValue(i, expression.evaluate(context));
+            } catch (ExpressionException e) {
+                result.setError(i, e);
+            }
+        }
+        
+        if (forked != null) {
+            for (int i = forked.size() - 1; i >= 0; i--)
+                forked.get(i).join();
+        }
+    }
+}
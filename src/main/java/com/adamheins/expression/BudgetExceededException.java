@@ -0,0 +1,49 @@
+package com.adamheins.expression;
+
+
+/**
+ * Thrown when evaluating an expression would go over its {@link EvaluationBudget}.
+ */
+public class BudgetExceededException extends ExpressionException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Limits of a budget.
+     */
+    public enum Limit {
+        
+        /** Number of digits of any value. */
+        DIGITS,
+        
+        /** Estimated work. */
+        WORK,
+        
+        /** Time taken. */
+        TIME
+    }
+    
+    // The limit that was exceeded.
+    private final Limit limit;
+    
+    
+    /**
+     * Create a new BudgetExceededException.
+     * 
+     * @param limit The limit that was exceeded.
+     */
+    public BudgetExceededException(Limit limit) {
+        super("Budget exceeded [" + limit.name().toLowerCase() + "].");
+        this.limit = limit;
+    }
+    
+    
+    /**
+     * Get the limit that was exceeded.
+     * 
+     * @return The limit.
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+}
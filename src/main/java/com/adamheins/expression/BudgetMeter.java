@@ -0,0 +1,109 @@
+package com.adamheins.expression;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Keeps track of how much of its budget an evaluation has used.
+ */
+final class BudgetMeter {
+    
+    // The budget.
+    private final EvaluationBudget budget;
+    
+    // Working precision of the evaluation, in digits.
+    private final int precision;
+    
+    // Value of System.nanoTime() at which time runs out, if there is a timeout.
+    private final long deadline;
+    
+    // Estimated work done so far.
+    private long work;
+    
+    
+    /**
+     * Create a new BudgetMeter, starting the clock.
+     * 
+     * @param budget The budget.
+     * @param precision Working precision of the evaluation, in digits.
+     */
+    BudgetMeter(EvaluationBudget budget, int precision) {
+        this.budget = budget;
+        this.precision = precision;
+        this.deadline = budget.getTimeout() == null ? 0 
+                : System.nanoTime() + budget.getTimeout().toNanos();
+    }
+    
+    
+    /**
+     * Checks that a program can be predicted to stay within the budget.
+     * 
+     * @param program The postfix program.
+     * @param values Values of the variables, in slot order.
+     * @param exact Whether the program is evaluated with exact integers.
+     * 
+     * @throws BudgetExceededException Throws an exception if the program is predicted to go
+     *     over the budget.
+     */
+    void checkProgram(Evaluatable[] program, Apfloat[] values, boolean exact) 
+            throws BudgetExceededException {
+        CostEstimator.ProgramEstimate estimate = 
+                CostEstimator.estimateGrowth(program, values, precision, exact);
+        if (estimate == null)
+            return;
+        if (estimate.maxDigits > budget.getMaxDigits())
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS);
+        if (estimate.work > budget.getMaxWork())
+            throw new BudgetExceededException(BudgetExceededException.Limit.WORK);
+    }
+    
+    
+    /**
+     * Charges a step that is about to be evaluated with the operands on top of a stack.
+     * 
+     * @param step The step.
+     * @param context Context the step is evaluated in.
+     * 
+     * @throws BudgetExceededException Throws an exception if time has run out, or the step
+     *     would go over the budget.
+     */
+    void charge(Evaluatable step, EvaluationContext context) throws BudgetExceededException {
+        int arity = step.getArity();
+        Apfloat[] operands = new Apfloat[Math.min(arity, context.size())];
+        for (int i = 0; i < operands.length; i++)
+            operands[i] = context.peek(operands.length - 1 - i);
+        charge(step, operands);
+    }
+    
+    
+    /**
+     * Charges a step that is about to be evaluated.
+     * 
+     * @param step The step.
+     * @param operands Operands of the step, in order.
+     * 
+     * @throws BudgetExceededException Throws an exception if time has run out, or the step
+     *     would go over the budget.
+     */
+    void charge(Evaluatable step, Apfloat... operands) throws BudgetExceededException {
+        if (budget.getTimeout() != null && System.nanoTime() - deadline > 0)
+            throw new BudgetExceededException(BudgetExceededException.Limit.TIME);
+        
+        // Values are cheap, and malformed steps are left for evaluation to report.
+        if (operands.length == 0 || operands.length != step.getArity()) {
+            work = CostEstimator.add(work, 1);
+            return;
+        }
+        CostEstimator.Estimate[] estimates = new CostEstimator.Estimate[operands.length];
+        for (int i = 0; i < operands.length; i++)
+            estimates[i] = CostEstimator.Estimate.of(operands[i]);
+        CostEstimator.Estimate result = 
+                CostEstimator.estimateResult(step, estimates, precision);
+        if (result.digits > budget.getMaxDigits())
+            throw new BudgetExceededException(BudgetExceededException.Limit.DIGITS);
+        work = CostEstimator.add(work, 
+                CostEstimator.estimateWork(step, estimates, result, precision));
+        if (work > budget.getMaxWork())
+            throw new BudgetExceededException(BudgetExceededException.Limit.WORK);
+    }
+}
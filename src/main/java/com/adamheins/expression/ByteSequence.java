@@ -0,0 +1,68 @@
+package com.adamheins.expression;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A read-only view of a range of bytes as characters, one character per byte. Expressions are
+ * ASCII, so this lets them be tokenized straight out of a buffer, such as a memory-mapped file,
+ * without first being decoded into a String.
+ */
+final class ByteSequence implements CharSequence {
+    
+    // Buffer holding the bytes. Only absolute reads are used, so it can be shared between threads.
+    private final ByteBuffer buffer;
+    
+    // Index of the first byte in the buffer.
+    private final int offset;
+    
+    // Number of bytes.
+    private final int length;
+    
+    
+    /**
+     * Create a new ByteSequence.
+     * 
+     * @param buffer Buffer holding the bytes.
+     * @param offset Index of the first byte in the buffer.
+     * @param length Number of bytes.
+     */
+    ByteSequence(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    
+    @Override
+    public int length() {
+        return length;
+    }
+    
+    
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + ", length " + length + ".");
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+    
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + "), length " 
+                    + length + ".");
+        return new ByteSequence(buffer, offset + start, end - start);
+    }
+    
+    
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
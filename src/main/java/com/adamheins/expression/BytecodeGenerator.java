@@ -0,0 +1,501 @@
+package com.adamheins.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Generates a hidden class implementing {@link GeneratedProgram} from a postfix program. Each
+ * step of the program becomes a few instructions of straight-line code: literals and variables
+ * are loaded into local variables, and each operation calls the same <code>apply</code> method
+ * that the interpreter uses, so results are identical. Without a value stack or a call through
+ * {@link Evaluatable} per step, the JIT can inline the whole program.
+ */
+final class BytecodeGenerator {
+    
+    // Class file version (Java 8). Straight-line code needs no stack map frames.
+    private static final int CLASS_VERSION = 52;
+    
+    // Access flags.
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    
+    // Constant pool tags.
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    
+    // Opcodes.
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int AALOAD = 0x32;
+    private static final int ASTORE = 0x3a;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    
+    // Local variables of the run method: this, literals, program, values, then the value stack.
+    private static final int LITERALS = 1;
+    private static final int PROGRAM = 2;
+    private static final int VALUES = 3;
+    private static final int FIRST_VALUE = 4;
+    
+    // Largest method a class file can hold.
+    private static final int MAX_CODE_LENGTH = 65535;
+    
+    // Internal names and descriptors.
+    private static final String PACKAGE = "com/adamheins/expression/";
+    private static final String APFLOAT = "org/apfloat/Apfloat";
+    private static final String APFLOAT_DESCRIPTOR = "L" + APFLOAT + ";";
+    private static final String OPERATOR = PACKAGE + "Operator";
+    
+    // Constant pool of the class being generated.
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    private int constantCount = 1;
+    
+    
+    private BytecodeGenerator() {}
+    
+    
+    /**
+     * Generates a class from a postfix program and creates an instance of it.
+     * 
+     * @param program The postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The generated program, or null if the program could not be generated.
+     */
+    static GeneratedProgram generate(Evaluatable[] program, int maxStackDepth, int precision) {
+        try {
+            byte[] classBytes = 
+                    new BytecodeGenerator().generateClass(program, maxStackDepth, precision);
+            if (classBytes == null)
+                return null;
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (GeneratedProgram) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Generates the class file.
+     * 
+     * @param program The postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The class file, or null if the program is too long for one method.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private byte[] generateClass(Evaluatable[] program, int maxStackDepth, int precision) 
+            throws IOException {
+        int thisClass = classConstant(PACKAGE + "Program");
+        int superClass = classConstant("java/lang/Object");
+        int programInterface = classConstant(PACKAGE + "GeneratedProgram");
+        
+        byte[] constructorCode = generateConstructor();
+        byte[] runCode = generateRun(program, precision);
+        if (runCode == null)
+            return null;
+        
+        // Constants used by the method declarations themselves.
+        int constructorName = utf8Constant("<init>");
+        int constructorDescriptor = utf8Constant("()V");
+        int runName = utf8Constant("run");
+        int runDescriptor = utf8Constant("([" + APFLOAT_DESCRIPTOR + "[L" + PACKAGE 
+                + "Evaluatable;[" + APFLOAT_DESCRIPTOR + ")" + APFLOAT_DESCRIPTOR);
+        int codeName = utf8Constant("Code");
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(constantCount);
+        constantPool.writeTo(out);
+        out.writeShort(ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(programInterface);
+        out.writeShort(0);
+        out.writeShort(2);
+        writeMethod(out, constructorName, constructorDescriptor, codeName, 1, 1, constructorCode);
+        writeMethod(out, runName, runDescriptor, codeName, 4, FIRST_VALUE + maxStackDepth, 
+                runCode);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+    
+    
+    /**
+     * Generates the code of the constructor, which only calls the constructor of Object.
+     * 
+     * @return The code.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private byte[] generateConstructor() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        code.writeByte(ALOAD_0);
+        code.writeByte(INVOKESPECIAL);
+        code.writeShort(methodConstant("java/lang/Object", "<init>", "()V"));
+        code.writeByte(RETURN);
+        return bytes.toByteArray();
+    }
+    
+    
+    /**
+     * Generates the code of the run method. The value at stack depth d lives in local variable
+     * FIRST_VALUE + d.
+     * 
+     * @param program The postfix program.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The code, or null if it is too long for one method.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private byte[] generateRun(Evaluatable[] program, int precision) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        
+        String unary = "(" + APFLOAT_DESCRIPTOR + ")" + APFLOAT_DESCRIPTOR;
+        String binary = "(" + APFLOAT_DESCRIPTOR + APFLOAT_DESCRIPTOR + ")" + APFLOAT_DESCRIPTOR;
+        String unaryOperator = "(" + APFLOAT_DESCRIPTOR + "I)" + APFLOAT_DESCRIPTOR;
+        
+        int depth = 0;
+        for (int i = 0; i < program.length; i++) {
+            Evaluatable op = program[i];
+            if (op instanceof Variable) {
+                
+                // program[i].getValue(values)
+                loadStep(code, i, PACKAGE + "Variable");
+                loadLocal(code, VALUES);
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodConstant(PACKAGE + "Variable", "getValue", 
+                        "([" + APFLOAT_DESCRIPTOR + ")" + APFLOAT_DESCRIPTOR));
+            } else if (op instanceof ReducedOperator) {
+                
+                // program[i].apply(operand)
+                depth--;
+                loadStep(code, i, PACKAGE + "ReducedOperator");
+                loadLocal(code, FIRST_VALUE + depth);
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodConstant(PACKAGE + "ReducedOperator", "apply", unary));
+            } else if (op instanceof Operator) {
+                
+                // Operator.NAME.apply(left, right) or Operator.NAME.apply(operand, precision)
+                Operator operator = (Operator) op;
+                depth -= operator.getArity();
+                code.writeByte(GETSTATIC);
+                code.writeShort(fieldConstant(OPERATOR, operator.name(), "L" + OPERATOR + ";"));
+                for (int j = 0; j < operator.getArity(); j++)
+                    loadLocal(code, FIRST_VALUE + depth + j);
+                if (operator.getArity() != 2)
+                    pushInt(code, precision);
+                code.writeByte(INVOKEVIRTUAL);
+                code.writeShort(methodConstant(OPERATOR, "apply", 
+                        operator.getArity() == 2 ? binary : unaryOperator));
+            } else {
+                
+                // literals[i]
+                loadLocal(code, LITERALS);
+                pushInt(code, i);
+                code.writeByte(AALOAD);
+            }
+            storeLocal(code, FIRST_VALUE + depth);
+            depth++;
+            
+            if (code.size() > MAX_CODE_LENGTH)
+                return null;
+        }
+        loadLocal(code, FIRST_VALUE);
+        code.writeByte(ARETURN);
+        return code.size() > MAX_CODE_LENGTH ? null : bytes.toByteArray();
+    }
+    
+    
+    /**
+     * Writes code that loads a step of the program and casts it to its class.
+     * 
+     * @param code The code being written.
+     * @param index Index of the step.
+     * @param className Internal name of the class of the step.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private void loadStep(DataOutputStream code, int index, String className) throws IOException {
+        loadLocal(code, PROGRAM);
+        pushInt(code, index);
+        code.writeByte(AALOAD);
+        code.writeByte(CHECKCAST);
+        code.writeShort(classConstant(className));
+    }
+    
+    
+    /**
+     * Writes code that pushes an int constant.
+     * 
+     * @param code The code being written.
+     * @param value The constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private void pushInt(DataOutputStream code, int value) throws IOException {
+        if (value <= 5)
+            code.writeByte(ICONST_0 + value);
+        else if (value <= Byte.MAX_VALUE) {
+            code.writeByte(BIPUSH);
+            code.writeByte(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.writeByte(SIPUSH);
+            code.writeShort(value);
+        } else {
+            code.writeByte(LDC_W);
+            code.writeShort(integerConstant(value));
+        }
+    }
+    
+    
+    /**
+     * Writes code that loads a reference from a local variable.
+     * 
+     * @param code The code being written.
+     * @param local Index of the local variable.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private static void loadLocal(DataOutputStream code, int local) throws IOException {
+        writeLocalInstruction(code, ALOAD, local);
+    }
+    
+    
+    /**
+     * Writes code that stores a reference in a local variable.
+     * 
+     * @param code The code being written.
+     * @param local Index of the local variable.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private static void storeLocal(DataOutputStream code, int local) throws IOException {
+        writeLocalInstruction(code, ASTORE, local);
+    }
+    
+    
+    /**
+     * Writes an instruction that takes a local variable index, widening it if needed.
+     * 
+     * @param code The code being written.
+     * @param opcode The opcode.
+     * @param local Index of the local variable.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private static void writeLocalInstruction(DataOutputStream code, int opcode, int local) 
+            throws IOException {
+        if (local <= 0xff) {
+            code.writeByte(opcode);
+            code.writeByte(local);
+        } else {
+            code.writeByte(WIDE);
+            code.writeByte(opcode);
+            code.writeShort(local);
+        }
+    }
+    
+    
+    /**
+     * Writes a method with a Code attribute.
+     * 
+     * @param out The class file being written.
+     * @param name Constant index of the method name.
+     * @param descriptor Constant index of the method descriptor.
+     * @param codeName Constant index of "Code".
+     * @param maxStack Maximum depth of the operand stack.
+     * @param maxLocals Number of local variables.
+     * @param code The code.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+            int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+    
+    
+    /**
+     * Get the index of a UTF-8 constant, adding it to the constant pool if needed.
+     * 
+     * @param text The text.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int utf8Constant(String text) throws IOException {
+        Integer index = constantIndices.get("Utf8:" + text);
+        if (index == null) {
+            constants.writeByte(CONSTANT_UTF8);
+            constants.writeUTF(text);
+            index = addConstant("Utf8:" + text);
+        }
+        return index;
+    }
+    
+    
+    /**
+     * Get the index of an integer constant, adding it to the constant pool if needed.
+     * 
+     * @param value The integer.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int integerConstant(int value) throws IOException {
+        Integer index = constantIndices.get("Integer:" + value);
+        if (index == null) {
+            constants.writeByte(CONSTANT_INTEGER);
+            constants.writeInt(value);
+            index = addConstant("Integer:" + value);
+        }
+        return index;
+    }
+    
+    
+    /**
+     * Get the index of a class constant, adding it to the constant pool if needed.
+     * 
+     * @param name Internal name of the class.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int classConstant(String name) throws IOException {
+        Integer index = constantIndices.get("Class:" + name);
+        if (index == null) {
+            int nameIndex = utf8Constant(name);
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(nameIndex);
+            index = addConstant("Class:" + name);
+        }
+        return index;
+    }
+    
+    
+    /**
+     * Get the index of a field or method reference constant, adding it to the constant pool if
+     * needed.
+     * 
+     * @param tag CONSTANT_FIELDREF or CONSTANT_METHODREF.
+     * @param owner Internal name of the class declaring the member.
+     * @param name Name of the member.
+     * @param descriptor Descriptor of the member.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int memberConstant(int tag, String owner, String name, String descriptor) 
+            throws IOException {
+        String key = tag + ":" + owner + "." + name + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            constants.writeByte(CONSTANT_NAME_AND_TYPE);
+            constants.writeShort(nameIndex);
+            constants.writeShort(descriptorIndex);
+            int nameAndType = addConstant("NameAndType:" + key);
+            constants.writeByte(tag);
+            constants.writeShort(ownerIndex);
+            constants.writeShort(nameAndType);
+            index = addConstant(key);
+        }
+        return index;
+    }
+    
+    
+    /**
+     * Get the index of a field reference constant.
+     * 
+     * @param owner Internal name of the class declaring the field.
+     * @param name Name of the field.
+     * @param descriptor Descriptor of the field.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int fieldConstant(String owner, String name, String descriptor) throws IOException {
+        return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+    
+    
+    /**
+     * Get the index of a method reference constant.
+     * 
+     * @param owner Internal name of the class declaring the method.
+     * @param name Name of the method.
+     * @param descriptor Descriptor of the method.
+     * 
+     * @return Index of the constant.
+     * 
+     * @throws IOException Never, as everything is written to memory.
+     */
+    private int methodConstant(String owner, String name, String descriptor) throws IOException {
+        return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+    
+    
+    /**
+     * Records the index of the constant that was just written to the pool.
+     * 
+     * @param key Key identifying the constant.
+     * 
+     * @return Index of the constant.
+     */
+    private int addConstant(String key) {
+        int index = constantCount++;
+        constantIndices.put(key, index);
+        return index;
+    }
+}
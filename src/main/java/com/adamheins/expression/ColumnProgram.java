@@ -0,0 +1,117 @@
+package com.adamheins.expression;
+
+import java.util.Arrays;
+
+
+/**
+ * A postfix program prepared for evaluation in double precision over columns of variable values.
+ * Rows are processed in chunks, and each step of the program is applied to a whole chunk at a
+ * time with the column kernels of the Operators, which keeps the inner loops free of dispatch so
+ * that the JIT can vectorize them. Rows for which a step overflows or is undefined are flagged so
+ * that the caller can evaluate them again with arbitrary precision.
+ */
+final class ColumnProgram {
+    
+    // Number of rows processed at a time, small enough for the chunks of the stack to stay cached.
+    static final int CHUNK_SIZE = 1024;
+    
+    // Kind of each step.
+    private final byte[] kinds;
+    
+    // Value of each literal step.
+    private final double[] literals;
+    
+    // Slot of each variable step.
+    private final int[] slots;
+    
+    // Operator of each unary and binary step.
+    private final Operator[] operators;
+    
+    // Reduced operator of each reduced step.
+    private final ReducedOperator[] reducedOperators;
+    
+    // Maximum number of values on the stack.
+    private final int maxStackDepth;
+    
+    
+    /**
+     * Create a new ColumnProgram.
+     * 
+     * @param program The decoded postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     */
+    ColumnProgram(DecodedProgram program, int maxStackDepth) {
+        this.kinds = program.kinds;
+        this.literals = program.doubleLiterals();
+        this.slots = program.slots;
+        this.operators = program.operators;
+        this.reducedOperators = program.reducedOperators;
+        this.maxStackDepth = maxStackDepth;
+    }
+    
+    
+    /**
+     * Allocates the stack used to run the program over chunks of rows.
+     * 
+     * @return A stack with a chunk-sized column for each entry.
+     */
+    double[][] newStack() {
+        return new double[maxStackDepth][CHUNK_SIZE];
+    }
+    
+    
+    /**
+     * Runs the program over a chunk of rows.
+     * 
+     * @param stack Stack returned by {@link #newStack()}.
+     * @param columns Values of the variables, one column per slot.
+     * @param start Index of the first row of the chunk.
+     * @param length Number of rows in the chunk, at most {@link #CHUNK_SIZE}.
+     * @param results Array to store the value of each row in, at the row's index.
+     * @param failed Set to true for each row, relative to the start of the chunk, that could not
+     *      be computed in double precision. Must be all false on entry.
+     * 
+     * @return True if any row in the chunk failed.
+     */
+    boolean evaluate(double[][] stack, double[][] columns, int start, int length,
+            double[] results, boolean[] failed) {
+        int top = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            double[] result;
+            switch (kinds[i]) {
+            case DecodedProgram.LITERAL:
+                result = stack[top++];
+                Arrays.fill(result, 0, length, literals[i]);
+                break;
+            case DecodedProgram.VARIABLE:
+                result = stack[top++];
+                System.arraycopy(columns[slots[i]], start, result, 0, length);
+                break;
+            case DecodedProgram.UNARY:
+                result = stack[top - 1];
+                operators[i].apply(result, result, length);
+                break;
+            case DecodedProgram.BINARY:
+                result = stack[top - 2];
+                operators[i].apply(result, stack[--top], result, length);
+                break;
+            default:
+                result = stack[top - 1];
+                ReducedOperator reduced = reducedOperators[i];
+                for (int row = 0; row < length; row++)
+                    result[row] = reduced.apply(result[row]);
+                break;
+            }
+            
+            // NaN and infinity are the only values that fail this comparison.
+            for (int row = 0; row < length; row++)
+                failed[row] |= !(Math.abs(result[row]) <= Double.MAX_VALUE);
+        }
+        System.arraycopy(stack[0], 0, results, start, length);
+        
+        boolean anyFailed = false;
+        for (int row = 0; row < length; row++)
+            anyFailed |= failed[row];
+        return anyFailed;
+    }
+}
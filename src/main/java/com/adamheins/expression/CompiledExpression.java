@@ -0,0 +1,630 @@
+package com.adamheins.expression;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatRuntimeException;
+
+
+/**
+ * A mathematical expression that has already been tokenized and converted to postfix notation.
+ * A CompiledExpression is safe to share between threads, so it can be evaluated any number of
+ * times, by any number of threads at once, without parsing the expression again. Values for its
+ * variables are bound at each evaluation.
+ * <p>
+ * The postfix program is interpreted at first. Once an expression has been evaluated often
+ * enough, it is compiled to a JVM class, which the JIT can optimize as a whole. The generated
+ * class and the parallel program are built lazily, the first time they are needed. Threads may
+ * race to count evaluations or to prepare the parallel program, which is harmless: a count can
+ * be lost, delaying generation slightly, and a program can be prepared twice, but every thread
+ * sees either none or one that is complete.
+ */
+public final class CompiledExpression {
+    
+    // Values of an expression without variables.
+    private static final Apfloat[] NO_VALUES = new Apfloat[0];
+    
+    /** Number of interpreted evaluations after which an expression is compiled to a class. */
+    static final int GENERATION_THRESHOLD = 1000;
+    
+    // The postfix program.
+    private final Evaluatable[] program;
+    
+    // Names of the variables, in slot order.
+    private final String[] variableNames;
+    
+    // Working precision, in digits.
+    private final int precision;
+    
+    // Number of tokens the expression was read as.
+    private final int tokenCount;
+    
+    // Maximum number of values on the value stack while the program runs.
+    private final int maxStackDepth;
+    
+    // The program prepared for evaluation in double precision.
+    private final DoubleProgram doubleProgram;
+    
+    // Program for evaluating over columns of values in double precision.
+    private final ColumnProgram columnProgram;
+    
+    // The program prepared for exact integer evaluation, or null if it isn't integer arithmetic.
+    private final IntegerProgram integerProgram;
+    
+    // The program rebuilt as a tree for parallel evaluation, or null if it hasn't been built.
+    private volatile ParallelProgram parallelProgram;
+    
+    // Whether building the tree has been attempted.
+    private volatile boolean parallelPrepared;
+    
+    // The program compiled to a class, or null if it hasn't been generated.
+    private volatile GeneratedProgram generatedProgram;
+    
+    // Values of the literal steps of the program, for the generated program.
+    private Apfloat[] literals;
+    
+    // Whether generating the class has been attempted.
+    private volatile boolean generationAttempted;
+    
+    // Approximate number of interpreted evaluations. Races only delay generation.
+    private int invocations;
+    
+    
+    /**
+     * Create a new CompiledExpression.
+     * 
+     * @param program The expression in postfix notation.
+     * @param variableNames Names of the variables, in slot order.
+     * @param precision Working precision, in digits.
+     * @param tokenCount Number of tokens the expression was read as.
+     * @param maxStackDepth Maximum number of values on the value stack while the program runs,
+     *     as computed when the program was checked.
+     */
+    CompiledExpression(Evaluatable[] program, String[] variableNames, int precision, 
+            int tokenCount, int maxStackDepth) {
+        this.program = program;
+        this.variableNames = variableNames;
+        this.precision = precision;
+        this.tokenCount = tokenCount;
+        this.maxStackDepth = maxStackDepth;
+        DecodedProgram decoded = new DecodedProgram(program);
+        this.doubleProgram = new DoubleProgram(decoded, maxStackDepth);
+        this.columnProgram = new ColumnProgram(decoded, maxStackDepth);
+        this.integerProgram = IntegerProgram.prepare(decoded, maxStackDepth, precision);
+    }
+    
+    
+    /**
+     * Get the maximum number of values on the value stack while this expression is evaluated.
+     * 
+     * @return The maximum stack depth.
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+    
+    
+    /**
+     * Get the precision this expression is evaluated with. Results are presented with one digit
+     * less than this.
+     * 
+     * @return The precision, in digits.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+    
+    
+    /**
+     * Get the number of tokens the expression was read as, before it was optimized.
+     * 
+     * @return The number of tokens.
+     */
+    int getTokenCount() {
+        return tokenCount;
+    }
+    
+    
+    /**
+     * Get the names of the variables of this expression, in the order their values are bound.
+     * 
+     * @return The names of the variables.
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+    
+    
+    /**
+     * Evaluates this expression, which has no variables, using the context of the calling thread.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public String evaluate() throws ExpressionException {
+        return evaluate(EvaluationContext.forCurrentThread(), NO_VALUES);
+    }
+    
+    
+    /**
+     * Evaluates this expression, which has no variables.
+     * 
+     * @param context Context to evaluate the expression in.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public String evaluate(EvaluationContext context) throws ExpressionException {
+        return evaluate(context, NO_VALUES);
+    }
+    
+    
+    /**
+     * Evaluates this expression using the context of the calling thread.
+     * 
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public String evaluate(Apfloat... values) throws ExpressionException {
+        return evaluate(EvaluationContext.forCurrentThread(), values);
+    }
+    
+    
+    /**
+     * Evaluates this expression using the context of the calling thread.
+     * 
+     * @param values Values of the variables, keyed by name.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered, or if a
+     *     variable has no value.
+     */
+    public String evaluate(Map<String, Apfloat> values) throws ExpressionException {
+        return evaluate(EvaluationContext.forCurrentThread(), toSlots(values));
+    }
+    
+    
+    /**
+     * Evaluates this expression.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public String evaluate(EvaluationContext context, Apfloat... values) 
+            throws ExpressionException {
+        
+        // An empty expression evaluates to zero.
+        if (program.length == 0)
+            return "0";
+        
+        return ExpressionEvaluator.format(execute(context, values), precision);
+    }
+    
+    
+    /**
+     * Evaluates this expression using the context of the calling thread, within a budget.
+     * 
+     * @param budget Limits on the evaluation.
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered, or a
+     *     {@link BudgetExceededException} if the evaluation would go over its budget.
+     */
+    public String evaluate(EvaluationBudget budget, Apfloat... values) 
+            throws ExpressionException {
+        
+        // An empty expression evaluates to zero.
+        if (program.length == 0)
+            return "0";
+        
+        BudgetMeter meter = new BudgetMeter(budget, precision);
+        return ExpressionEvaluator.format(
+                execute(EvaluationContext.forCurrentThread(), values, meter), precision);
+    }
+    
+    
+    /**
+     * Evaluates this expression using the context of the calling thread, without formatting the
+     * value.
+     * 
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public EvaluationResult evaluateToValue(Apfloat... values) throws ExpressionException {
+        return evaluateToValue(EvaluationContext.forCurrentThread(), values);
+    }
+    
+    
+    /**
+     * Evaluates this expression without formatting the value. The value is only formatted if
+     * the result is converted to a String.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public EvaluationResult evaluateToValue(EvaluationContext context, Apfloat... values) 
+            throws ExpressionException {
+        
+        // An empty expression evaluates to zero.
+        if (program.length == 0)
+            return EvaluationResult.zero(precision);
+        
+        return new EvaluationResult(execute(context, values), precision);
+    }
+    
+    
+    /**
+     * Evaluates this expression on the common fork/join pool, evaluating independent operands at
+     * the same time when they are expensive enough.
+     * 
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     * 
+     * @see #evaluateParallel(ForkJoinPool, Apfloat...)
+     */
+    public String evaluateParallel(Apfloat... values) throws ExpressionException {
+        return evaluateParallel(ForkJoinPool.commonPool(), values);
+    }
+    
+    
+    /**
+     * Evaluates this expression, evaluating independent operands at the same time on a fork/join
+     * pool when their estimated cost is high enough, such as transcendental functions at
+     * thousands of digits. Cheap expressions are evaluated on the calling thread as by
+     * {@link #evaluate(Apfloat...)}.
+     * 
+     * @param pool Pool to evaluate expensive operands on.
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public String evaluateParallel(ForkJoinPool pool, Apfloat... values) 
+            throws ExpressionException {
+        if (values.length != variableNames.length)
+            throw new IllegalArgumentException("Expected " + variableNames.length 
+                    + " variable values, got " + values.length + ".");
+        
+        ParallelProgram parallel = parallelProgram;
+        if (parallel == null && !parallelPrepared) {
+            parallel = ParallelProgram.prepare(program, maxStackDepth, precision);
+            parallelProgram = parallel;
+            parallelPrepared = true;
+        }
+        
+        // Integer arithmetic is cheap enough without parallelism.
+        if (parallel == null || integerProgram != null)
+            return evaluate(EvaluationContext.forCurrentThread(), values);
+        return ExpressionEvaluator.format(parallel.evaluate(pool, values), precision);
+    }
+    
+    
+    /**
+     * Evaluates this expression in double precision using the context of the calling thread.
+     * This is much faster than evaluating with arbitrary precision, but is only accurate to
+     * about 16 digits. If a step overflows, is undefined, or can't be computed exactly enough in
+     * double precision, the expression is evaluated with arbitrary precision instead.
+     * 
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public double evaluateDouble(double... values) throws ExpressionException {
+        return evaluateDouble(EvaluationContext.forCurrentThread(), values);
+    }
+    
+    
+    /**
+     * Evaluates this expression in double precision, falling back to arbitrary precision if
+     * double precision is not enough.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in the order they were named when compiling.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    public double evaluateDouble(EvaluationContext context, double... values) 
+            throws ExpressionException {
+        if (values.length != variableNames.length)
+            throw new IllegalArgumentException("Expected " + variableNames.length 
+                    + " variable values, got " + values.length + ".");
+        
+        // An empty expression evaluates to zero.
+        if (program.length == 0)
+            return 0;
+        
+        double result = doubleProgram.evaluate(context, values);
+        if (!Double.isNaN(result))
+            return result;
+        
+        // Fall back to arbitrary precision.
+        Apfloat[] apfloatValues = new Apfloat[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+                throw new ExpressionException("Math error.");
+            apfloatValues[i] = new Apfloat(values[i], precision);
+        }
+        return execute(context, apfloatValues).doubleValue();
+    }
+    
+    
+    /**
+     * Evaluates this expression in double precision for each row of a table of variable values.
+     * Rows are evaluated a chunk at a time, step by step, which is much faster than evaluating
+     * them one at a time for large tables. Rows that can't be computed in double precision are
+     * evaluated again as by {@link #evaluateDouble(double...)}.
+     * 
+     * @param columns Values of the variables, one column per variable in the order they were
+     *      named when compiling. All columns must have the same length.
+     * 
+     * @return The value of the expression for each row, or NaN for rows with a math error. An
+     *      expression without variables has a single row.
+     */
+    public double[] evaluateColumns(double[]... columns) {
+        double[] results = new double[columns.length == 0 ? 1 : columns[0].length];
+        evaluateColumns(columns, results);
+        return results;
+    }
+    
+    
+    /**
+     * Evaluates this expression in double precision for each row of a table of variable values,
+     * storing the results in an existing array.
+     * 
+     * @param columns Values of the variables, one column per variable in the order they were
+     *      named when compiling. All columns must have the same length.
+     * @param results Array to store the value of each row in, or NaN for rows with a math error.
+     *      Must have the same length as the columns.
+     */
+    public void evaluateColumns(double[][] columns, double[] results) {
+        if (columns.length != variableNames.length)
+            throw new IllegalArgumentException("Expected " + variableNames.length 
+                    + " variable columns, got " + columns.length + ".");
+        for (double[] column : columns) {
+            if (column.length != results.length)
+                throw new IllegalArgumentException("Expected columns of length " 
+                        + results.length + ", got " + column.length + ".");
+        }
+        
+        // An empty expression evaluates to zero.
+        if (program.length == 0) {
+            Arrays.fill(results, 0);
+            return;
+        }
+        
+        EvaluationContext context = EvaluationContext.forCurrentThread();
+        double[][] stack = columnProgram.newStack();
+        boolean[] failed = new boolean[ColumnProgram.CHUNK_SIZE];
+        double[] row = new double[columns.length];
+        
+        for (int start = 0; start < results.length; start += ColumnProgram.CHUNK_SIZE) {
+            int length = Math.min(ColumnProgram.CHUNK_SIZE, results.length - start);
+            if (!columnProgram.evaluate(stack, columns, start, length, results, failed))
+                continue;
+            
+            // Evaluate the rows that failed one at a time.
+            for (int i = 0; i < length; i++) {
+                if (!failed[i])
+                    continue;
+                failed[i] = false;
+                for (int slot = 0; slot < columns.length; slot++)
+                    row[slot] = columns[slot][start + i];
+                try {
+                    results[start + i] = evaluateDouble(context, row);
+                } catch (ExpressionException e) {
+                    results[start + i] = Double.NaN;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Runs the postfix program, timing it if metrics are being recorded.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The raw value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    private Apfloat execute(EvaluationContext context, Apfloat[] values) 
+            throws ExpressionException {
+        return execute(context, values, (BudgetMeter) null);
+    }
+    
+    
+    /**
+     * Runs the postfix program within a budget, timing it if metrics are being recorded.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in slot order.
+     * @param meter Budget of the evaluation, or null if there is no budget.
+     * 
+     * @return The raw value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered, or the
+     *     evaluation goes over its budget.
+     */
+    private Apfloat execute(EvaluationContext context, Apfloat[] values, BudgetMeter meter) 
+            throws ExpressionException {
+        EvaluationMetrics metrics = EvaluationMetrics.active();
+        if (metrics == null)
+            return run(context, values, null, meter);
+        
+        long start = System.nanoTime();
+        try {
+            return run(context, values, metrics, meter);
+        } catch (ExpressionException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            metrics.recordPhase(EvaluationMetrics.Phase.EVALUATE, System.nanoTime() - start);
+        }
+    }
+    
+    
+    /**
+     * Runs the postfix program, recording how long each operator takes if metrics or Flight
+     * Recorder operator events are being recorded, and charging each step to the budget if
+     * there is one. The generated class is skipped in these cases, since its steps can't be
+     * observed.
+     * 
+     * @param context Context to evaluate the expression in.
+     * @param values Values of the variables, in slot order.
+     * @param metrics Metrics to record into, or null if metrics aren't being recorded.
+     * @param meter Budget to charge each step to, or null if there is no budget.
+     * 
+     * @return The raw value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered, or the
+     *     evaluation goes over its budget.
+     */
+    private Apfloat run(EvaluationContext context, Apfloat[] values, EvaluationMetrics metrics,
+            BudgetMeter meter) throws ExpressionException {
+        if (values.length != variableNames.length)
+            throw new IllegalArgumentException("Expected " + variableNames.length 
+                    + " variable values, got " + values.length + ".");
+        
+        // Fail before starting if the budget can be predicted to run out.
+        if (meter != null)
+            meter.checkProgram(program, values, 
+                    integerProgram != null && integerProgram.accepts(values));
+        
+        // Integer arithmetic is evaluated exactly, as long as every value is an integer.
+        if (integerProgram != null) {
+            Apfloat result = integerProgram.evaluate(context, values, meter);
+            if (result != null)
+                return result;
+        }
+        
+        // Run the generated class, once the expression is hot enough to have one.
+        GeneratedProgram generated = generatedProgram;
+        if (generated == null && !generationAttempted && ++invocations >= GENERATION_THRESHOLD)
+            generated = generateProgram();
+        boolean traced = OperatorEvent.isRecording();
+        if (generated != null && metrics == null && !traced && meter == null) {
+            try {
+                return generated.run(literals, program, values);
+            } catch (ArithmeticException | ApfloatRuntimeException e) {
+                throw new ExpressionException(e.getMessage());
+            }
+        }
+        
+        // Evaluate the postfix program on top of whatever is already on the stack.
+        int base = context.size();
+        context.reserve(base + maxStackDepth);
+        Apfloat[] previousValues = context.bind(values);
+        int previousPrecision = context.setPrecision(precision);
+        try {
+            if (metrics == null && !traced && meter == null) {
+                for (Evaluatable op : program)
+                    op.evaluate(context);
+            } else {
+                for (Evaluatable op : program) {
+                    if (meter != null)
+                        meter.charge(op, context);
+                    long start = System.nanoTime();
+                    if (traced)
+                        OperatorEvent.evaluate(op, context);
+                    else
+                        op.evaluate(context);
+                    if (metrics != null)
+                        metrics.recordStep(op, System.nanoTime() - start);
+                }
+            }
+            return context.pop();
+        } catch (ArithmeticException | ApfloatRuntimeException e) {
+            throw new ExpressionException(e.getMessage());
+        } finally {
+            context.bind(previousValues);
+            context.setPrecision(previousPrecision);
+            context.truncate(base);
+        }
+    }
+    
+    
+    /**
+     * Compiles the postfix program to a class. This is only attempted once.
+     * 
+     * @return The generated program, or null if it could not be generated.
+     */
+    synchronized GeneratedProgram generateProgram() {
+        if (!generationAttempted) {
+            literals = new Apfloat[program.length];
+            for (int i = 0; i < program.length; i++) {
+                if (program[i] instanceof Number)
+                    literals[i] = ((Number) program[i]).getValue();
+                else if (program[i] instanceof Constant)
+                    literals[i] = ((Constant) program[i]).getValue(precision);
+            }
+            generatedProgram = BytecodeGenerator.generate(program, maxStackDepth, precision);
+            generationAttempted = true;
+        }
+        return generatedProgram;
+    }
+    
+    
+    /**
+     * Arranges the values of variables by slot.
+     * 
+     * @param values Values of the variables, keyed by name.
+     * 
+     * @return Values of the variables, in slot order.
+     * 
+     * @throws ExpressionException Throws an exception if a variable has no value.
+     */
+    private Apfloat[] toSlots(Map<String, Apfloat> values) throws ExpressionException {
+        Apfloat[] slots = new Apfloat[variableNames.length];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = values.get(variableNames[i]);
+            if (slots[i] == null)
+                throw new ExpressionException("Variable [" + variableNames[i] + "] is not bound.");
+        }
+        return slots;
+    }
+    
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Evaluatable op : program) {
+            if (builder.length() > 0)
+                builder.append(' ');
+            builder.append(op);
+        }
+        return builder.toString();
+    }
+}
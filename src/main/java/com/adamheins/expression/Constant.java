@@ -1,9 +1,12 @@
 package com.adamheins.expression;
 
 import java.util.Deque;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
 
 
 /**
@@ -12,28 +15,73 @@ import org.apfloat.Apfloat;
 public enum Constant implements Shuntable, Evaluatable {
     
     /** Pi constant. */
-    PI("pi", "3.141592653589793238462643383279"),
+    PI("pi") {
+        @Override
+        Apfloat compute(int precision) {
+            return AuxiliaryValue.PI.getValue(precision);
+        }
+    },
     
     /** Euler's constant. */
-    E("e", "2.718281828459045235360287471352");
+    E("e") {
+        @Override
+        Apfloat compute(int precision) {
+            return ApfloatMath.exp(new Apfloat(1, precision));
+        }
+    };
     
     
     // Symbol representing the constant.
-    private String symbol;
+    private final String symbol;
     
-    // The value of the constant.
-    private Apfloat value;
+    // Values of the constant computed so far, keyed by precision.
+    private final Map<Integer, Apfloat> values = new ConcurrentHashMap<>();
     
     
-    private Constant(String symbol, String value) {
+    private Constant(String symbol) {
         this.symbol = symbol;
-        this.value = new Apfloat(value);
+    }
+    
+    
+    /**
+     * Computes the value of the constant.
+     * 
+     * @param precision Precision of the value, in digits.
+     * 
+     * @return The value of the constant.
+     */
+    abstract Apfloat compute(int precision);
+    
+    
+    /**
+     * Get the value of the constant at the default precision.
+     * 
+     * @return The value of the constant.
+     */
+    Apfloat getValue() {
+        return getValue(ExpressionEvaluator.PRECISION);
+    }
+    
+    
+    /**
+     * Get the value of the constant. Each precision is computed once, the first time it is
+     * needed.
+     * 
+     * @param precision Precision of the value, in digits.
+     * 
+     * @return The value of the constant.
+     */
+    Apfloat getValue(int precision) {
+        Apfloat value = values.get(precision);
+        if (value == null)
+            value = values.computeIfAbsent(precision, this::compute);
+        return value;
     }
     
     
     @Override
-    public void evaluate(Deque<Apfloat> valueStack) {
-        valueStack.push(value);
+    public void evaluate(EvaluationContext context) {
+        context.push(getValue(context.getPrecision()));
     }
     
     
@@ -0,0 +1,503 @@
+package com.adamheins.expression;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Estimates how expensive the steps of a postfix program are to evaluate with arbitrary
+ * precision. Costs are in rough units of single-digit operations, and only meant to compare
+ * steps with each other: addition is linear in the precision, multiplication is close to linear
+ * thanks to FFT, and transcendental functions take many multiplications.
+ * <p>
+ * Costs can also be estimated from the values of the operands, which also predicts how many
+ * digits each result has. Exact integers grow without bound, so a factorial or a power can cost
+ * far more than its precision suggests.
+ */
+final class CostEstimator {
+    
+    // Cost of pushing a literal, constant or variable.
+    private static final long VALUE_COST = 1;
+    
+    // Number of multiplications a division or root takes, by Newton's iteration.
+    private static final long NEWTON_MULTIPLICATIONS = 3;
+    
+    // Constant factor of the number of multiplications a transcendental function takes.
+    private static final long TRANSCENDENTAL_FACTOR = 5;
+    
+    // Largest number of digits an estimate can have.
+    private static final double MAX_DIGITS = Long.MAX_VALUE;
+    
+    
+    private CostEstimator() {}
+    
+    
+    /**
+     * Estimates the cost of a whole program.
+     * 
+     * @param program The postfix program.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The estimated cost.
+     */
+    static long estimate(Evaluatable[] program, long precision) {
+        long cost = 0;
+        for (Evaluatable op : program)
+            cost = add(cost, estimate(op, precision));
+        return cost;
+    }
+    
+    
+    /**
+     * Estimates the cost of a single step, not counting its operands.
+     * 
+     * @param op The step.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The estimated cost.
+     */
+    static long estimate(Evaluatable op, long precision) {
+        if (op instanceof ReducedOperator)
+            return estimate((ReducedOperator) op, precision);
+        if (!(op instanceof Operator))
+            return VALUE_COST;
+        
+        long addition = Math.max(precision, 1);
+        long multiplication = multiply(addition, log2(addition));
+        long transcendental =
+                multiply(multiply(multiplication, log2(addition)), TRANSCENDENTAL_FACTOR);
+        switch ((Operator) op) {
+        case PLUS:
+        case MINUS:
+        case NEGATE:
+        case SCI_NOTATION:
+            return addition;
+        case MULTIPLY:
+        case TO_RADIANS:
+        case TO_DEGREES:
+            return multiplication;
+        case DIVIDE:
+        case MODULO:
+        case SQRT:
+            return multiply(multiplication, NEWTON_MULTIPLICATIONS);
+        default:
+            return transcendental;
+        }
+    }
+    
+    
+    /**
+     * Estimates the cost of a reduced step, not counting its operand.
+     * 
+     * @param op The step.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The estimated cost.
+     */
+    private static long estimate(ReducedOperator op, long precision) {
+        long addition = Math.max(precision, 1);
+        long multiplication = multiply(addition, log2(addition));
+        switch (op.getOperator()) {
+        case POW:
+            
+            // Repeated squaring, with a division for negative exponents.
+            long exponent = Math.abs(op.getLiteral());
+            long squarings = multiply(multiplication, log2(exponent) + 1);
+            if (op.getLiteral() < 0)
+                squarings = add(squarings, multiply(multiplication, NEWTON_MULTIPLICATIONS));
+            return squarings;
+        case ROOT:
+            return multiply(multiply(multiplication, NEWTON_MULTIPLICATIONS),
+                    log2(Math.abs(op.getLiteral())) + 1);
+        default:
+            return addition;
+        }
+    }
+    
+    
+    /**
+     * Adds two costs, saturating instead of overflowing.
+     * 
+     * @param a A cost.
+     * @param b A cost.
+     * 
+     * @return The sum of the costs, or Long.MAX_VALUE if it overflows.
+     */
+    static long add(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+    
+    
+    /**
+     * Multiplies two costs, saturating instead of overflowing.
+     * 
+     * @param a A cost.
+     * @param b A cost.
+     * 
+     * @return The product of the costs, or Long.MAX_VALUE if it overflows.
+     */
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a)
+            return Long.MAX_VALUE;
+        return a * b;
+    }
+    
+    
+    /**
+     * Computes the base 2 logarithm of a number, rounded up, and at least 1.
+     * 
+     * @param n The number. Numbers below 2, including overflowed negative ones, count as 2.
+     * 
+     * @return The logarithm.
+     */
+    private static long log2(long n) {
+        if (n <= 2)
+            return 1;
+        return 64 - Long.numberOfLeadingZeros(n - 1);
+    }
+    
+    
+    /**
+     * Predicts how many digits the values of a program grow to, and how much work it takes, from
+     * the values of its literals and variables.
+     * 
+     * @param program The postfix program.
+     * @param values Values of the variables, in slot order, or null if they aren't known.
+     * @param precision Working precision of the program, in digits.
+     * @param exact Whether the program is evaluated with exact integers, rather than at the
+     *     working precision.
+     * 
+     * @return The estimate, or null if the program is malformed.
+     */
+    static ProgramEstimate estimateGrowth(Evaluatable[] program, Apfloat[] values, long precision,
+            boolean exact) {
+        Deque<Estimate> stack = new ArrayDeque<>();
+        long maxDigits = 0;
+        long work = 0;
+        for (Evaluatable op : program) {
+            int arity = op.getArity();
+            if (stack.size() < arity)
+                return null;
+            
+            Estimate result;
+            if (arity == 0) {
+                result = estimateValue(op, values, precision, exact);
+                work = add(work, VALUE_COST);
+            } else {
+                Estimate[] operands = new Estimate[arity];
+                for (int i = arity - 1; i >= 0; i--)
+                    operands[i] = stack.pop();
+                result = estimateResult(op, operands, precision);
+                work = add(work, estimateWork(op, operands, result, precision));
+            }
+            maxDigits = Math.max(maxDigits, result.digits);
+            stack.push(result);
+        }
+        return stack.size() == 1 ? new ProgramEstimate(maxDigits, work) : null;
+    }
+    
+    
+    /**
+     * Estimates a value pushed by a step of a program.
+     * 
+     * @param op The step.
+     * @param values Values of the variables, in slot order, or null if they aren't known.
+     * @param precision Working precision of the program, in digits.
+     * @param exact Whether the program is evaluated with exact integers.
+     * 
+     * @return The estimate.
+     */
+    private static Estimate estimateValue(Evaluatable op, Apfloat[] values, long precision,
+            boolean exact) {
+        Apfloat value = null;
+        if (op instanceof Number)
+            value = ((Number) op).getValue();
+        else if (op instanceof Constant)
+            value = ((Constant) op).getValue((int) precision);
+        else if (op instanceof Variable && values != null)
+            value = values[((Variable) op).getSlot()];
+        if (value == null)
+            return new Estimate(precision, 0, Double.NaN, exact);
+        Estimate estimate = Estimate.of(value);
+        if (exact && !estimate.exact)
+            return new Estimate(Math.max(estimate.magnitude, 1), estimate.magnitude, 
+                    estimate.value, true);
+        return estimate;
+    }
+    
+    
+    /**
+     * Predicts the result of a step from its operands.
+     * 
+     * @param op The step.
+     * @param operands Its operands, in order.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The estimated result.
+     */
+    static Estimate estimateResult(Evaluatable op, Estimate[] operands, long precision) {
+        Operator operator = Operator.of(op);
+        if (operator == null)
+            return new Estimate(precision, 0, Double.NaN, false);
+        
+        // A reduced step's literal is the index of a root, and the right operand otherwise.
+        Estimate left = operands[0];
+        Estimate right = operands.length > 1 ? operands[1] : null;
+        if (op instanceof ReducedOperator) {
+            Estimate literal = Estimate.of(((ReducedOperator) op).getLiteral());
+            if (operator == Operator.ROOT) {
+                right = left;
+                left = literal;
+            } else
+                right = literal;
+        }
+        
+        // Approximate the value in double precision, which is enough to predict how large
+        // exponents, indices and factorials are.
+        double value = right == null ? operator.apply(left.value) 
+                : operator.apply(left.value, right.value);
+        boolean exact = left.exact && (right == null || right.exact);
+        long digits = exact ? precision : Math.min(left.digits, 
+                right == null ? left.digits : right.digits);
+        long magnitude = 0;
+        switch (operator) {
+        case PLUS:
+        case MINUS:
+            magnitude = saturate(Math.max(left.magnitude, right.magnitude) + 1.0);
+            if (exact)
+                digits = saturate(Math.max(left.digits, right.digits) + 1.0);
+            break;
+        case NEGATE:
+            magnitude = left.magnitude;
+            digits = left.digits;
+            break;
+        case MULTIPLY:
+            magnitude = saturate((double) left.magnitude + right.magnitude);
+            if (exact)
+                digits = saturate((double) left.digits + right.digits);
+            break;
+        case DIVIDE:
+            magnitude = saturate((double) left.magnitude - right.magnitude + 1);
+            if (exact)
+                digits = left.digits;
+            break;
+        case MODULO:
+            magnitude = right.magnitude;
+            if (exact)
+                digits = right.digits;
+            break;
+        case POW:
+            magnitude = saturate(right.value * left.magnitude);
+            if (exact)
+                digits = isInteger(right.value) ? Math.max(magnitude, 1) : precision;
+            break;
+        case SCI_NOTATION:
+            magnitude = saturate(left.magnitude + right.value);
+            if (exact)
+                digits = Math.max(magnitude, 1);
+            break;
+        case FACTORIAL:
+            
+            // Exact factorials keep every digit. Others keep the working precision as guard
+            // digits, unless they are too large to be worth keeping exactly.
+            magnitude = factorialDigits(left.value);
+            if (exact)
+                digits = Math.max(magnitude, 1);
+            else if (magnitude <= Integers.EXACT_GROWTH * precision)
+                digits = saturate((double) magnitude + precision);
+            else
+                digits = precision;
+            break;
+        default:
+            exact = false;
+            digits = Math.min(digits, precision);
+            break;
+        }
+        return new Estimate(Math.max(digits, 1), magnitude, value, exact);
+    }
+    
+    
+    /**
+     * Estimates the cost of a step from its operands and its result.
+     * 
+     * @param op The step.
+     * @param operands Its operands, in order.
+     * @param result Its estimated result.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The estimated cost.
+     */
+    static long estimateWork(Evaluatable op, Estimate[] operands, Estimate result, 
+            long precision) {
+        Operator operator = Operator.of(op);
+        if (operator == null)
+            return VALUE_COST;
+        
+        long digits = result.digits;
+        for (Estimate operand : operands)
+            digits = Math.max(digits, operand.digits);
+        long multiplication = multiply(digits, log2(digits));
+        double literal = op instanceof ReducedOperator 
+                ? ((ReducedOperator) op).getLiteral() : Double.NaN;
+        switch (operator) {
+        case FACTORIAL:
+            
+            // Binary splitting takes about as long as a few multiplications of the exact result,
+            // which is computed in full even if it is then rounded.
+            return multiply(multiply(result.magnitude, log2(result.magnitude)), 
+                    log2(toLong(operands[0].value)));
+        case POW:
+            double exponent = op instanceof ReducedOperator ? literal : operands[1].value;
+            if (!isInteger(exponent))
+                return estimate(operator, digits);
+            
+            // Exact powers are dominated by the last squaring.
+            if (result.exact)
+                return multiply(multiplication, 2);
+            return multiply(multiplication, log2(toLong(Math.abs(exponent))) + 1);
+        case ROOT:
+            double index = op instanceof ReducedOperator ? literal : operands[0].value;
+            return multiply(multiply(multiplication, NEWTON_MULTIPLICATIONS),
+                    log2(toLong(Math.abs(index))) + 1);
+        case SCI_NOTATION:
+            return result.exact ? multiplication : digits;
+        default:
+            return estimate(operator, digits);
+        }
+    }
+    
+    
+    /**
+     * Estimates the number of digits of a factorial, using Stirling's approximation.
+     * 
+     * @param n The operand.
+     * 
+     * @return The estimated number of digits of n!, which is 1 if n isn't known.
+     */
+    private static long factorialDigits(double n) {
+        if (!(n >= 2))
+            return 1;
+        double log = n * Math.log(n) - n + 0.5 * Math.log(2 * Math.PI * n);
+        return saturate(Math.ceil(log / Math.log(10)));
+    }
+    
+    
+    /**
+     * Checks if a value is known to be an integer.
+     * 
+     * @param value The value, or NaN if it isn't known.
+     * 
+     * @return True if the value is an integer, false otherwise.
+     */
+    private static boolean isInteger(double value) {
+        return value == Math.rint(value);
+    }
+    
+    
+    /**
+     * Converts a count to a long, saturating instead of overflowing.
+     * 
+     * @param value The count, or NaN if it isn't known.
+     * 
+     * @return The count, at least 1.
+     */
+    private static long toLong(double value) {
+        if (Double.isNaN(value))
+            return 1;
+        return Math.max(saturate(value), 1);
+    }
+    
+    
+    /**
+     * Converts a number of digits to a long, saturating instead of overflowing.
+     * 
+     * @param digits The number of digits. NaN counts as zero.
+     * 
+     * @return The number of digits.
+     */
+    private static long saturate(double digits) {
+        if (Double.isNaN(digits))
+            return 0;
+        return (long) Math.max(Math.min(digits, MAX_DIGITS), -MAX_DIGITS);
+    }
+    
+    
+    /**
+     * The predicted size of a value.
+     */
+    static final class Estimate {
+        
+        // Number of significant digits the value is held with.
+        final long digits;
+        
+        // Number of digits before the decimal point, or minus the number of zeros after it.
+        final long magnitude;
+        
+        // The value in double precision, or NaN if it isn't known.
+        final double value;
+        
+        // Whether the value is an exact integer, whose digits aren't limited by the precision.
+        final boolean exact;
+        
+        
+        Estimate(long digits, long magnitude, double value, boolean exact) {
+            this.digits = digits;
+            this.magnitude = magnitude;
+            this.value = value;
+            this.exact = exact;
+        }
+        
+        
+        /**
+         * Get the size of a value that is known.
+         * 
+         * @param value The value.
+         * 
+         * @return The estimate.
+         */
+        static Estimate of(Apfloat value) {
+            boolean exact = value.precision() == Apfloat.INFINITE;
+            long magnitude = value.signum() == 0 ? 0 : value.scale();
+            long digits = exact ? Math.max(magnitude, 1) : value.precision();
+            double approximation = value.signum() * Double.POSITIVE_INFINITY;
+            if (magnitude < 300)
+                approximation = magnitude < -300 ? 0 : value.doubleValue();
+            return new Estimate(digits, magnitude, approximation, exact);
+        }
+        
+        
+        /**
+         * Get the size of an exact integer.
+         * 
+         * @param value The integer.
+         * 
+         * @return The estimate.
+         */
+        static Estimate of(long value) {
+            long magnitude = value == 0 ? 0 : Long.toString(Math.abs(value)).length();
+            return new Estimate(Math.max(magnitude, 1), magnitude, value, true);
+        }
+    }
+    
+    
+    /**
+     * The predicted growth and cost of a whole program.
+     */
+    static final class ProgramEstimate {
+        
+        // Largest number of digits of any value in the program.
+        final long maxDigits;
+        
+        // Estimated cost of the program.
+        final long work;
+        
+        
+        ProgramEstimate(long maxDigits, long work) {
+            this.maxDigits = maxDigits;
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.adamheins.expression;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * A postfix program decoded into parallel arrays, one entry per step, for the evaluators that
+ * run on primitive stacks instead of calling each step. Every step is sorted into a kind once,
+ * here, so that the evaluators agree on what each step is.
+ */
+final class DecodedProgram {
+    
+    /** Kind of a step that pushes a Number or a Constant. */
+    static final byte LITERAL = 0;
+    
+    /** Kind of a step that pushes the value of a Variable. */
+    static final byte VARIABLE = 1;
+    
+    /** Kind of a step that applies an Operator to one operand. */
+    static final byte UNARY = 2;
+    
+    /** Kind of a step that applies an Operator to two operands. */
+    static final byte BINARY = 3;
+    
+    /** Kind of a step that applies a ReducedOperator to one operand. */
+    static final byte REDUCED = 4;
+    
+    // The steps, as they were before decoding.
+    final Evaluatable[] steps;
+    
+    // Kind of each step.
+    final byte[] kinds;
+    
+    // Value of each literal step.
+    final Apfloat[] literals;
+    
+    // Slot of each variable step.
+    final int[] slots;
+    
+    // Operator of each unary, binary and reduced step.
+    final Operator[] operators;
+    
+    // Reduced operator of each reduced step.
+    final ReducedOperator[] reducedOperators;
+    
+    
+    /**
+     * Create a new DecodedProgram.
+     * 
+     * @param program The postfix program.
+     */
+    DecodedProgram(Evaluatable[] program) {
+        this.steps = program;
+        this.kinds = new byte[program.length];
+        this.literals = new Apfloat[program.length];
+        this.slots = new int[program.length];
+        this.operators = new Operator[program.length];
+        this.reducedOperators = new ReducedOperator[program.length];
+        
+        for (int i = 0; i < program.length; i++) {
+            Evaluatable op = program[i];
+            if (op instanceof Number) {
+                kinds[i] = LITERAL;
+                literals[i] = ((Number) op).getValue();
+            } else if (op instanceof Constant) {
+                kinds[i] = LITERAL;
+                literals[i] = ((Constant) op).getValue();
+            } else if (op instanceof Variable) {
+                kinds[i] = VARIABLE;
+                slots[i] = ((Variable) op).getSlot();
+            } else if (op instanceof ReducedOperator) {
+                kinds[i] = REDUCED;
+                reducedOperators[i] = (ReducedOperator) op;
+                operators[i] = reducedOperators[i].getOperator();
+            } else {
+                Operator operator = (Operator) op;
+                kinds[i] = operator.getArity() == 2 ? BINARY : UNARY;
+                operators[i] = operator;
+            }
+        }
+    }
+    
+    
+    /**
+     * Get the number of steps in the program.
+     * 
+     * @return The length of the program.
+     */
+    int length() {
+        return kinds.length;
+    }
+    
+    
+    /**
+     * Converts the value of each literal step to a double.
+     * 
+     * @return The value of each literal step in double precision, and zero for other steps.
+     */
+    double[] doubleLiterals() {
+        double[] values = new double[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == LITERAL)
+                values[i] = literals[i].doubleValue();
+        }
+        return values;
+    }
+}
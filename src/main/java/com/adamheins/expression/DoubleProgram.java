@@ -0,0 +1,84 @@
+package com.adamheins.expression;
+
+
+/**
+ * A postfix program prepared for evaluation in double precision, on a primitive stack and with
+ * <code>Math</code> functions. Evaluation gives up, returning NaN, as soon as a step overflows,
+ * is undefined, or can't be computed exactly enough in a double, so that the caller can fall back
+ * to arbitrary precision.
+ */
+final class DoubleProgram {
+    
+    // Kind of each step.
+    private final byte[] kinds;
+    
+    // Value of each literal step.
+    private final double[] literals;
+    
+    // Slot of each variable step.
+    private final int[] slots;
+    
+    // Operator of each unary and binary step.
+    private final Operator[] operators;
+    
+    // Reduced operator of each reduced step.
+    private final ReducedOperator[] reducedOperators;
+    
+    // Maximum number of values on the stack.
+    private final int maxStackDepth;
+    
+    
+    /**
+     * Create a new DoubleProgram.
+     * 
+     * @param program The decoded postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     */
+    DoubleProgram(DecodedProgram program, int maxStackDepth) {
+        this.kinds = program.kinds;
+        this.literals = program.doubleLiterals();
+        this.slots = program.slots;
+        this.operators = program.operators;
+        this.reducedOperators = program.reducedOperators;
+        this.maxStackDepth = maxStackDepth;
+    }
+    
+    
+    /**
+     * Runs the program.
+     * 
+     * @param context Context to evaluate the program in.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The value of the program, or NaN if it could not be computed in double precision.
+     */
+    double evaluate(EvaluationContext context, double[] values) {
+        double[] stack = context.getDoubleStack(maxStackDepth);
+        int top = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            double result;
+            switch (kinds[i]) {
+            case DecodedProgram.LITERAL:
+                result = literals[i];
+                break;
+            case DecodedProgram.VARIABLE:
+                result = values[slots[i]];
+                break;
+            case DecodedProgram.UNARY:
+                result = operators[i].apply(stack[--top]);
+                break;
+            case DecodedProgram.BINARY:
+                top -= 2;
+                result = operators[i].apply(stack[top], stack[top + 1]);
+                break;
+            default:
+                result = reducedOperators[i].apply(stack[--top]);
+                break;
+            }
+            if (Double.isNaN(result) || Double.isInfinite(result))
+                return Double.NaN;
+            stack[top++] = result;
+        }
+        return stack[0];
+    }
+}
@@ -1,19 +1,27 @@
 package com.adamheins.expression;
 
-import java.util.Deque;
-import org.apfloat.Apfloat;
-
 /**
  * Implemented by math tokens that can be evaluated.
  */
 public interface Evaluatable {
     
     /**
-     * Evaluates this Evaluatable and pushes the result onto the value stack.
+     * Evaluates this Evaluatable and pushes the result onto the value stack of the context.
      * 
-     * @param valueStack Stack of values.
+     * @param context Context holding the stack of values.
      * 
      * @throws ExpressionException If the operation causes a math error.
      */
-    public void evaluate (Deque<Apfloat> valueStack) throws ExpressionException;
+    public void evaluate (EvaluationContext context) throws ExpressionException;
+    
+    
+    /**
+     * Get the number of values this Evaluatable pops off of the value stack before pushing its
+     * result.
+     * 
+     * @return The number of operands.
+     */
+    public default int getArity() {
+        return 0;
+    }
 }
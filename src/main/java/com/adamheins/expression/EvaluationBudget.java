@@ -0,0 +1,80 @@
+package com.adamheins.expression;
+
+import java.time.Duration;
+
+
+/**
+ * Limits on how much an evaluation may do: how many digits any value may have, how much work
+ * it may take, as estimated from the values it computes, and how long it may run. An evaluation
+ * that would go over its budget fails with a {@link BudgetExceededException}, before it starts
+ * if the budget can be predicted to run out, or between steps otherwise.
+ * <p>
+ * Budgets are checked between steps, so a single step can still run past the deadline. The work
+ * and digit limits are there to stop steps that would run for too long before they start.
+ */
+public final class EvaluationBudget {
+    
+    /** A budget without limits. */
+    public static final EvaluationBudget UNLIMITED = 
+            new EvaluationBudget(Long.MAX_VALUE, Long.MAX_VALUE, null);
+    
+    // Largest number of digits any value may have.
+    private final long maxDigits;
+    
+    // Largest estimated work of the whole evaluation.
+    private final long maxWork;
+    
+    // Longest time the evaluation may take, or null if it may take any time.
+    private final Duration timeout;
+    
+    
+    /**
+     * Create a new EvaluationBudget.
+     * 
+     * @param maxDigits Largest number of digits any value may have.
+     * @param maxWork Largest estimated work of the whole evaluation, in rough units of
+     *     single-digit operations.
+     * @param timeout Longest time the evaluation may take, or null if it may take any time.
+     */
+    public EvaluationBudget(long maxDigits, long maxWork, Duration timeout) {
+        if (maxDigits <= 0)
+            throw new IllegalArgumentException("Digit limit must be positive: " + maxDigits);
+        if (maxWork <= 0)
+            throw new IllegalArgumentException("Work limit must be positive: " + maxWork);
+        if (timeout != null && (timeout.isNegative() || timeout.isZero()))
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        this.maxDigits = maxDigits;
+        this.maxWork = maxWork;
+        this.timeout = timeout;
+    }
+    
+    
+    /**
+     * Get the largest number of digits any value may have.
+     * 
+     * @return The digit limit.
+     */
+    public long getMaxDigits() {
+        return maxDigits;
+    }
+    
+    
+    /**
+     * Get the largest estimated work of the whole evaluation.
+     * 
+     * @return The work limit.
+     */
+    public long getMaxWork() {
+        return maxWork;
+    }
+    
+    
+    /**
+     * Get the longest time the evaluation may take.
+     * 
+     * @return The timeout, or null if the evaluation may take any time.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+}
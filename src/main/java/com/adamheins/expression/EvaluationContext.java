@@ -0,0 +1,212 @@
+package com.adamheins.expression;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Working state for evaluating expressions: array-backed stacks of values, and the values bound
+ * to variables. A context is reused across evaluations, so a steady-state evaluation allocates
+ * nothing beyond the values it computes. A context must only be used by one thread at a time;
+ * use {@link #forCurrentThread()} to get one that belongs to the calling thread.
+ */
+public final class EvaluationContext {
+    
+    // Initial capacity of the value stack.
+    private static final int INITIAL_CAPACITY = 16;
+    
+    // Context of each thread.
+    private static final ThreadLocal<EvaluationContext> CURRENT =
+            ThreadLocal.withInitial(EvaluationContext::new);
+    
+    // Stack of values.
+    private Apfloat[] values = new Apfloat[INITIAL_CAPACITY];
+    
+    // Number of values on the stack.
+    private int size;
+    
+    // Stack of values for double precision evaluation.
+    private double[] doubleValues = new double[INITIAL_CAPACITY];
+    
+    // Stack of values for exact integer evaluation.
+    private long[] longValues = new long[INITIAL_CAPACITY];
+    
+    // Values bound to variables, indexed by slot.
+    private Apfloat[] variables = new Apfloat[0];
+    
+    // Precision of the expression being evaluated.
+    private int precision = ExpressionEvaluator.PRECISION;
+    
+    
+    /**
+     * Get the context that belongs to the calling thread.
+     * 
+     * @return The context of the calling thread.
+     */
+    public static EvaluationContext forCurrentThread() {
+        return CURRENT.get();
+    }
+    
+    
+    /**
+     * Pushes a value onto the value stack.
+     * 
+     * @param value The value to push.
+     */
+    public void push(Apfloat value) {
+        if (size == values.length)
+            reserve(size + 1);
+        values[size++] = value;
+    }
+    
+    
+    /**
+     * Pops a value off of the value stack.
+     * 
+     * @return The value on top of the stack.
+     */
+    public Apfloat pop() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return values[--size];
+    }
+    
+    
+    /**
+     * Get the value on top of the value stack without removing it.
+     * 
+     * @return The value on top of the stack.
+     */
+    public Apfloat peek() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return values[size - 1];
+    }
+    
+    
+    /**
+     * Get a value below the top of the value stack without removing it.
+     * 
+     * @param depth Number of values above the value, or zero for the top.
+     * 
+     * @return The value.
+     */
+    Apfloat peek(int depth) {
+        if (depth < 0 || depth >= size)
+            throw new NoSuchElementException();
+        return values[size - 1 - depth];
+    }
+    
+    
+    /**
+     * Get the number of values on the value stack.
+     * 
+     * @return The size of the stack.
+     */
+    public int size() {
+        return size;
+    }
+    
+    
+    /**
+     * Get the value bound to a variable.
+     * 
+     * @param slot Slot of the variable.
+     * 
+     * @return The value of the variable, or null if it is not bound.
+     */
+    Apfloat getVariable(int slot) {
+        return slot < variables.length ? variables[slot] : null;
+    }
+    
+    
+    /**
+     * Binds values to variables. The array is used as it is, not copied.
+     * 
+     * @param values Values of the variables, indexed by slot.
+     * 
+     * @return The values that were bound before.
+     */
+    Apfloat[] bind(Apfloat[] values) {
+        Apfloat[] previous = variables;
+        variables = values;
+        return previous;
+    }
+    
+    
+    /**
+     * Get the precision of the expression being evaluated.
+     * 
+     * @return The precision, in digits.
+     */
+    int getPrecision() {
+        return precision;
+    }
+    
+    
+    /**
+     * Sets the precision of the expression being evaluated.
+     * 
+     * @param precision The precision, in digits.
+     * 
+     * @return The precision that was set before.
+     */
+    int setPrecision(int precision) {
+        int previous = this.precision;
+        this.precision = precision;
+        return previous;
+    }
+    
+    
+    /**
+     * Makes sure the value stack can hold at least the specified number of values without
+     * growing.
+     * 
+     * @param capacity Required capacity of the stack.
+     */
+    void reserve(int capacity) {
+        if (capacity > values.length)
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+    }
+    
+    
+    /**
+     * Get the stack used for double precision evaluation.
+     * 
+     * @param capacity Required capacity of the stack.
+     * 
+     * @return An array of at least the required capacity.
+     */
+    double[] getDoubleStack(int capacity) {
+        if (capacity > doubleValues.length)
+            doubleValues = new double[Math.max(capacity, doubleValues.length * 2)];
+        return doubleValues;
+    }
+    
+    
+    /**
+     * Get the stack used for exact integer evaluation.
+     * 
+     * @param capacity Required capacity of the stack.
+     * 
+     * @return An array of at least the required capacity.
+     */
+    long[] getLongStack(int capacity) {
+        if (capacity > longValues.length)
+            longValues = new long[Math.max(capacity, longValues.length * 2)];
+        return longValues;
+    }
+    
+    
+    /**
+     * Pops values off of the value stack until it has the specified size, releasing them.
+     * 
+     * @param newSize Size to truncate the stack to.
+     */
+    void truncate(int newSize) {
+        while (size > newSize)
+            values[--size] = null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.adamheins.expression;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+
+/**
+ * Flight Recorder event for an evaluation of a string of math that took long. It covers
+ * compiling and evaluating the expression, since constant expressions are computed while they
+ * are compiled.
+ */
+@Name(EvaluationEvent.NAME)
+@Label("Expression Evaluation")
+@Category("Expression Evaluator")
+@Description("Evaluation of a string of math")
+@StackTrace(false)
+@Threshold("10 ms")
+final class EvaluationEvent extends jdk.jfr.Event {
+    
+    /** Name of the event. */
+    static final String NAME = "com.adamheins.expression.Evaluation";
+    
+    /** Number of characters of the expression that are recorded. */
+    static final int MAX_EXPRESSION_LENGTH = 256;
+    
+    @Label("Expression")
+    @Description("The string of math, truncated")
+    String expression;
+    
+    @Label("Length")
+    @Description("Number of characters in the string of math")
+    int length;
+    
+    @Label("Token Count")
+    @Description("Number of tokens the string of math was read as")
+    int tokenCount;
+    
+    @Label("Precision")
+    @Description("Internal precision of calculations, in digits")
+    int precision;
+    
+    @Label("Error")
+    @Description("Message of the error the evaluation failed with, if it failed")
+    String error;
+    
+    
+    /**
+     * Starts timing an evaluation.
+     * 
+     * @return The event.
+     */
+    static EvaluationEvent start() {
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        return event;
+    }
+    
+    
+    /**
+     * Stops timing the evaluation, and records it if it took long enough.
+     * 
+     * @param expressionString The string of math.
+     * @param precision Internal precision of calculations, in digits.
+     * @param compiled The compiled expression, or null if it failed to compile.
+     * @param e The error the evaluation failed with, or null if it succeeded.
+     */
+    void finish(CharSequence expressionString, int precision, CompiledExpression compiled, 
+            ExpressionException e) {
+        end();
+        if (!shouldCommit())
+            return;
+        
+        int length = expressionString.length();
+        this.expression = expressionString.subSequence(0, Math.min(length, MAX_EXPRESSION_LENGTH))
+                .toString();
+        this.length = length;
+        this.tokenCount = compiled == null ? 0 : compiled.getTokenCount();
+        this.precision = precision;
+        this.error = e == null ? null : e.getMessage();
+        commit();
+    }
+}
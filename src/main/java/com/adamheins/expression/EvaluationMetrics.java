@@ -0,0 +1,275 @@
+package com.adamheins.expression;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Records where evaluating expressions spends its time: a latency histogram for each phase, the
+ * number of times each operator is applied and the time spent in it, and the number of errors of
+ * each kind. Recording is off until it is enabled. While it is off, the only cost to evaluation
+ * is a check of a single field.
+ * <p>
+ * While recording, expressions are parsed in two separate passes instead of one, so that
+ * tokenizing and shunting can be timed apart, and arbitrary precision evaluation always runs the
+ * postfix program step by step, so that each operator can be timed. Exact integer evaluation and
+ * double precision evaluation don't record operators.
+ */
+public final class EvaluationMetrics implements EvaluationMetricsMXBean {
+    
+    /** Name the metrics are registered under with the platform MBean server. */
+    public static final String OBJECT_NAME = "com.adamheins.expression:type=EvaluationMetrics";
+    
+    /**
+     * Phases of evaluating an expression.
+     */
+    public enum Phase {
+        
+        /** Reading tokens from the string of math. */
+        TOKENIZE,
+        
+        /** Converting tokens to a postfix program. */
+        SHUNT,
+        
+        /** Optimizing the postfix program. */
+        OPTIMIZE,
+        
+        /** Running the program. */
+        EVALUATE,
+        
+        /** Formatting the value as text. */
+        FORMAT
+    }
+    
+    // The only instance.
+    private static final EvaluationMetrics INSTANCE = new EvaluationMetrics();
+    
+    // The instance while it is recording, or null if it isn't.
+    private static volatile EvaluationMetrics active;
+    
+    // Latencies of each phase, indexed by ordinal.
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+    
+    // Number of applications of each operator, and time spent in them, indexed by ordinal.
+    private final LongAdder[] operatorCounts = new LongAdder[Operator.values().length];
+    private final LongAdder[] operatorNanos = new LongAdder[Operator.values().length];
+    
+    // Number of errors, keyed by message with the details left out.
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    
+    
+    private EvaluationMetrics() {
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new LatencyHistogram();
+        for (int i = 0; i < operatorCounts.length; i++) {
+            operatorCounts[i] = new LongAdder();
+            operatorNanos[i] = new LongAdder();
+        }
+    }
+    
+    
+    /**
+     * Get the metrics of this JVM.
+     * 
+     * @return The metrics.
+     */
+    public static EvaluationMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    
+    /**
+     * Registers the metrics with the platform MBean server under {@link #OBJECT_NAME}, unless
+     * they are already registered. Registering doesn't enable recording.
+     * 
+     * @return The metrics.
+     * 
+     * @throws JMException Throws an exception if the metrics can't be registered.
+     */
+    public static EvaluationMetrics register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        synchronized (INSTANCE) {
+            if (!server.isRegistered(name))
+                server.registerMBean(INSTANCE, name);
+        }
+        return INSTANCE;
+    }
+    
+    
+    /**
+     * Get the metrics to record into.
+     * 
+     * @return The metrics, or null if recording is off.
+     */
+    static EvaluationMetrics active() {
+        return active;
+    }
+    
+    
+    @Override
+    public boolean isEnabled() {
+        return active != null;
+    }
+    
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        active = enabled ? this : null;
+    }
+    
+    
+    /**
+     * Records how long a phase took.
+     * 
+     * @param phase The phase.
+     * @param nanos The duration, in nanoseconds.
+     */
+    void recordPhase(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+    
+    
+    /**
+     * Records how long a step of a postfix program took. Steps that aren't operators, such as
+     * pushing a literal, are ignored.
+     * 
+     * @param step The step.
+     * @param nanos The duration, in nanoseconds.
+     */
+    void recordStep(Evaluatable step, long nanos) {
+        Operator operator = Operator.of(step);
+        if (operator == null)
+            return;
+        operatorCounts[operator.ordinal()].increment();
+        operatorNanos[operator.ordinal()].add(nanos);
+    }
+    
+    
+    /**
+     * Records an error.
+     * 
+     * @param e The error.
+     */
+    void recordError(ExpressionException e) {
+        errors.computeIfAbsent(errorKind(e.getMessage()), k -> new LongAdder()).increment();
+    }
+    
+    
+    /**
+     * Get the kind of an error from its message, by leaving out the details in square brackets.
+     * 
+     * @param message The message of the error.
+     * 
+     * @return The kind of the error.
+     */
+    static String errorKind(String message) {
+        if (message == null)
+            return "Unknown error.";
+        return message.replaceAll("\\[[^\\]]*\\]", "[]");
+    }
+    
+    
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+        return phaseMetric(LatencyHistogram::getCount);
+    }
+    
+    
+    @Override
+    public Map<String, Long> getPhaseTotalNanos() {
+        return phaseMetric(LatencyHistogram::getTotalNanos);
+    }
+    
+    
+    @Override
+    public Map<String, Long> getPhaseMedianNanos() {
+        return phaseMetric(histogram -> histogram.getPercentile(50));
+    }
+    
+    
+    @Override
+    public Map<String, Long> getPhase99thPercentileNanos() {
+        return phaseMetric(histogram -> histogram.getPercentile(99));
+    }
+    
+    
+    @Override
+    public Map<String, long[]> getPhaseHistograms() {
+        Map<String, long[]> histograms = new LinkedHashMap<>();
+        for (Phase phase : Phase.values())
+            histograms.put(phase.name(), phases[phase.ordinal()].getBuckets());
+        return histograms;
+    }
+    
+    
+    @Override
+    public Map<String, Long> getOperatorCounts() {
+        return operatorMetric(operatorCounts);
+    }
+    
+    
+    @Override
+    public Map<String, Long> getOperatorTotalNanos() {
+        return operatorMetric(operatorNanos);
+    }
+    
+    
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : errors.entrySet())
+            counts.put(entry.getKey(), entry.getValue().sum());
+        return counts;
+    }
+    
+    
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : phases)
+            histogram.reset();
+        for (int i = 0; i < operatorCounts.length; i++) {
+            operatorCounts[i].reset();
+            operatorNanos[i].reset();
+        }
+        errors.clear();
+    }
+    
+    
+    /**
+     * Collects a metric of every phase.
+     * 
+     * @param metric Gets the metric from the histogram of a phase.
+     * 
+     * @return The metric, keyed by phase.
+     */
+    private Map<String, Long> phaseMetric(ToLongFunction<LatencyHistogram> metric) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Phase phase : Phase.values())
+            values.put(phase.name(), metric.applyAsLong(phases[phase.ordinal()]));
+        return values;
+    }
+    
+    
+    /**
+     * Collects a metric of every operator.
+     * 
+     * @param adders The metric, indexed by operator ordinal.
+     * 
+     * @return The metric, keyed by operator.
+     */
+    private static Map<String, Long> operatorMetric(LongAdder[] adders) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operator operator : Operator.values())
+            values.put(operator.name(), adders[operator.ordinal()].sum());
+        return values;
+    }
+}
@@ -0,0 +1,99 @@
+package com.adamheins.expression;
+
+import java.util.Map;
+
+
+/**
+ * Management interface of {@link EvaluationMetrics}. Durations are in nanoseconds. Maps are
+ * keyed by the names of phases, operators or error messages.
+ */
+public interface EvaluationMetricsMXBean {
+    
+    /**
+     * Checks if metrics are being recorded.
+     * 
+     * @return True if metrics are being recorded, false otherwise.
+     */
+    boolean isEnabled();
+    
+    
+    /**
+     * Starts or stops recording metrics.
+     * 
+     * @param enabled True to record metrics, false to stop.
+     */
+    void setEnabled(boolean enabled);
+    
+    
+    /**
+     * Get the number of times each phase has run.
+     * 
+     * @return The counts, keyed by phase.
+     */
+    Map<String, Long> getPhaseCounts();
+    
+    
+    /**
+     * Get the total time spent in each phase.
+     * 
+     * @return The durations, keyed by phase.
+     */
+    Map<String, Long> getPhaseTotalNanos();
+    
+    
+    /**
+     * Get the estimated median duration of each phase.
+     * 
+     * @return The durations, keyed by phase.
+     */
+    Map<String, Long> getPhaseMedianNanos();
+    
+    
+    /**
+     * Get the estimated 99th percentile duration of each phase.
+     * 
+     * @return The durations, keyed by phase.
+     */
+    Map<String, Long> getPhase99thPercentileNanos();
+    
+    
+    /**
+     * Get the latency histogram of each phase. Bucket i of a histogram counts the runs that took
+     * less than 2<sup>i</sup> nanoseconds and weren't counted by a smaller bucket.
+     * 
+     * @return The histograms, keyed by phase.
+     */
+    Map<String, long[]> getPhaseHistograms();
+    
+    
+    /**
+     * Get the number of times each operator has been applied in arbitrary precision.
+     * 
+     * @return The counts, keyed by operator.
+     */
+    Map<String, Long> getOperatorCounts();
+    
+    
+    /**
+     * Get the total time spent applying each operator in arbitrary precision.
+     * 
+     * @return The durations, keyed by operator.
+     */
+    Map<String, Long> getOperatorTotalNanos();
+    
+    
+    /**
+     * Get the number of errors of each kind. Errors are grouped by message, with the details in
+     * square brackets left out, so that every syntax error is of the same kind no matter where
+     * it is.
+     * 
+     * @return The counts, keyed by message.
+     */
+    Map<String, Long> getErrorCounts();
+    
+    
+    /**
+     * Clears every metric.
+     */
+    void reset();
+}
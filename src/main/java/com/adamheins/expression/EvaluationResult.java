@@ -0,0 +1,110 @@
+package com.adamheins.expression;
+
+import java.math.RoundingMode;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+
+/**
+ * The value of an evaluated expression. The raw value can be used directly by callers that want
+ * a number, while the text shown to users is only formatted if it is asked for.
+ */
+public final class EvaluationResult {
+    
+    // The raw value, or null for an empty expression.
+    private final Apfloat value;
+    
+    // Precision the expression was evaluated with.
+    private final int precision;
+    
+    // The formatted value, or null until it is first needed. Racing threads compute the same
+    // String, so the field doesn't need to be volatile.
+    private String text;
+    
+    
+    /**
+     * Create a new EvaluationResult.
+     * 
+     * @param value The raw value of the expression.
+     * @param precision Precision the expression was evaluated with, in digits.
+     */
+    EvaluationResult(Apfloat value, int precision) {
+        this.value = value;
+        this.precision = precision;
+    }
+    
+    
+    /**
+     * Create the result of an empty expression, which is zero.
+     * 
+     * @param precision Precision the expression was evaluated with, in digits.
+     * 
+     * @return The result.
+     */
+    static EvaluationResult zero(int precision) {
+        EvaluationResult result = new EvaluationResult(null, precision);
+        result.text = "0";
+        return result;
+    }
+    
+    
+    /**
+     * Get the raw value, at the precision the expression was evaluated with. Exact integers are
+     * evaluated with guard digits, which are rounded off here.
+     * 
+     * @return The value.
+     */
+    public Apfloat getValue() {
+        if (value == null)
+            return new Apfloat(0, precision);
+        if (value.precision() > precision)
+            return ApfloatMath.round(value, precision, RoundingMode.HALF_UP);
+        return value;
+    }
+    
+    
+    /**
+     * Get the precision the expression was evaluated with.
+     * 
+     * @return The precision, in digits.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+    
+    
+    /**
+     * Get the value as a double.
+     * 
+     * @return The closest double to the value.
+     */
+    public double doubleValue() {
+        return value != null ? value.doubleValue() : 0;
+    }
+    
+    
+    /**
+     * Get the value as a long, discarding any fractional part.
+     * 
+     * @return The integer part of the value.
+     */
+    public long longValue() {
+        return value != null ? value.longValue() : 0;
+    }
+    
+    
+    /**
+     * Get the value formatted for display, exactly as {@link CompiledExpression#evaluate()}
+     * returns it. The text is formatted the first time it is asked for.
+     * 
+     * @return The formatted value.
+     */
+    @Override
+    public String toString() {
+        String formatted = text;
+        if (formatted == null)
+            text = formatted = ExpressionEvaluator.format(value, precision);
+        return formatted;
+    }
+}
@@ -0,0 +1,281 @@
+package com.adamheins.expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A size-bounded cache of compiled expressions, keyed by expression text. Entries are evicted in
+ * least-recently-used order. The cache is split into segments that are locked independently, so
+ * threads looking up different expressions rarely contend with each other.
+ */
+public final class ExpressionCache {
+    
+    // Largest number of independently locked segments. Must be a power of two.
+    private static final int MAX_SEGMENTS = 16;
+    
+    // Segments of the cache. There is a power of two of them.
+    private final Segment[] segments;
+    
+    // Statistics.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    
+    /**
+     * Create a new ExpressionCache.
+     * 
+     * @param capacity Maximum number of compiled expressions to hold.
+     */
+    public ExpressionCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        
+        // Small caches have fewer segments, so that each can hold at least one entry. The
+        // capacity is split exactly, with the remainder spread over the first segments.
+        segments = new Segment[Integer.highestOneBit(Math.min(capacity, MAX_SEGMENTS))];
+        for (int i = 0; i < segments.length; i++) {
+            int extra = i < capacity % segments.length ? 1 : 0;
+            segments[i] = new Segment(capacity / segments.length + extra);
+        }
+    }
+    
+    
+    /**
+     * Get the compiled form of an expression, compiling it if it is not already cached.
+     * 
+     * @param expressionString The <code>String</code> of math to be compiled.
+     * @param variableNames Names of the variables that may appear in the expression.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    public CompiledExpression get(CharSequence expressionString, String... variableNames) 
+            throws ExpressionException {
+        return get(expressionString, ExpressionEvaluator.PRECISION, variableNames);
+    }
+    
+    
+    /**
+     * Get the compiled form of an expression at a precision, compiling it if it is not already
+     * cached. The same expression compiled with different precisions is cached separately.
+     * 
+     * @param expressionString The <code>String</code> of math to be compiled.
+     * @param precision Internal precision of calculations, in digits.
+     * @param variableNames Names of the variables that may appear in the expression.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    public CompiledExpression get(CharSequence expressionString, int precision, 
+            String... variableNames) throws ExpressionException {
+        String normalized = normalize(expressionString);
+        String key = key(normalized, precision, variableNames);
+        Segment segment = segmentFor(key);
+        
+        CompiledExpression expression;
+        synchronized (segment) {
+            expression = segment.get(key);
+        }
+        if (expression != null) {
+            hits.increment();
+            return expression;
+        }
+        misses.increment();
+        
+        // Compile outside of the lock so that a slow compilation doesn't block the segment. The
+        // normalized text is compiled, so that every spelling that shares the entry gets the
+        // same result, whichever of them came first.
+        try {
+            expression = ExpressionEvaluator.compileUncached(normalized, precision, variableNames);
+        } catch (ExpressionException e) {
+            
+            // Report the error at its position in the text as it was given.
+            if (normalized.contentEquals(expressionString))
+                throw e;
+            return ExpressionEvaluator.compileUncached(expressionString, precision, variableNames);
+        }
+        synchronized (segment) {
+            segment.put(key, expression);
+        }
+        return expression;
+    }
+    
+    
+    /**
+     * Removes all entries from the cache. Statistics are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+    
+    
+    /**
+     * Get the number of compiled expressions in the cache.
+     * 
+     * @return Size of the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+    
+    
+    /**
+     * Get the number of lookups that found a compiled expression in the cache.
+     * 
+     * @return Number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    
+    /**
+     * Get the number of lookups that had to compile the expression.
+     * 
+     * @return Number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    
+    /**
+     * Get the number of compiled expressions that were evicted to make room for others.
+     * 
+     * @return Number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    
+    /**
+     * Builds the cache key of an expression.
+     * 
+     * @param normalized The normalized <code>String</code> of math.
+     * @param precision Internal precision of calculations, in digits.
+     * @param variableNames Names of the variables that may appear in the expression.
+     * 
+     * @return The cache key.
+     */
+    private static String key(String normalized, int precision, String[] variableNames) {
+        
+        // The precision is a prefix of digits, ended by the first null character.
+        StringBuilder builder = new StringBuilder();
+        builder.append(precision).append('\0').append(normalized);
+        
+        // Variable names can't contain null characters, so they can't be confused with the text.
+        for (String name : variableNames)
+            builder.append('\0').append(name);
+        return builder.toString();
+    }
+    
+    
+    /**
+     * Normalizes the whitespace in an expression so that expressions which tokenize the same way
+     * share a cache key. Whitespace is dropped, except where it separates two characters that
+     * could otherwise merge into a different token, such as the digits in "2 3". There it is
+     * collapsed to a single space. An expression of nothing but whitespace becomes a single space,
+     * so that it isn't mistaken for the empty expression.
+     * 
+     * @param expression The expression to normalize.
+     * 
+     * @return The normalized expression.
+     */
+    static String normalize(CharSequence expression) {
+        
+        // Most expressions have no whitespace at all.
+        int i = 0;
+        while (i < expression.length() && !Character.isWhitespace(expression.charAt(i)))
+            i++;
+        if (i == expression.length())
+            return expression.toString();
+        
+        StringBuilder builder = new StringBuilder(expression.length());
+        builder.append(expression, 0, i);
+        boolean pendingSpace = false;
+        for (; i < expression.length(); i++) {
+            char ch = expression.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                pendingSpace = builder.length() > 0;
+                continue;
+            }
+            if (pendingSpace && isWordCharacter(builder.charAt(builder.length() - 1))
+                    && isWordCharacter(ch))
+                builder.append(' ');
+            pendingSpace = false;
+            builder.append(ch);
+        }
+        return builder.length() > 0 ? builder.toString() : " ";
+    }
+    
+    
+    /**
+     * Checks if a character can be part of a multi-character token.
+     * 
+     * @param ch Character to check.
+     * 
+     * @return True if the character is a letter, digit or radix point, false otherwise.
+     */
+    private static boolean isWordCharacter(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '.';
+    }
+    
+    
+    /**
+     * Get the segment responsible for a key.
+     * 
+     * @param key The key.
+     * 
+     * @return The segment for the key.
+     */
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+    
+    
+    /**
+     * One segment of the cache: a map in access order that evicts its eldest entry when full.
+     * Callers must hold the segment's lock.
+     */
+    private final class Segment extends LinkedHashMap<String, CompiledExpression> {
+        
+        // Serial Version UID
+        private static final long serialVersionUID = 1L;
+        
+        // Maximum number of entries in the segment.
+        private final int capacity;
+        
+        
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.adamheins.expression;
 
 import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apfloat.Apfloat;
 import org.apfloat.ApfloatMath;
@@ -15,33 +17,272 @@ import org.apfloat.ApfloatMath;
  */
 public class ExpressionEvaluator {
     
-    /** Internal precision of calculations. Presented value is one less than this. */
+    /** 
+     * Default internal precision of calculations, in digits. Presented value is one less than
+     * this. 
+     */
     public static final int PRECISION = 21;  
-
+    
+    /** Smallest precision an expression can be compiled with. */
+    public static final int MIN_PRECISION = 2;
+    
+    // Cache of compiled expressions, or null if caching is disabled.
+    private static volatile ExpressionCache cache;
+    
     
     /**
-     * Converts a list of tokens from infix notation to postfix notation.
+     * Converts tokens from infix notation to postfix notation, checking and shunting each one as
+     * it is read.
+     * 
+     * @param tokens Cursor over the tokens in infix notation.
      * 
-     * @param tokens
+     * @return The tokens in postfix notation.
      * 
-     * @return
+     * @throws ExpressionException Throws an exception if an unrecognized token is encountered,
+     *     or the expression is malformed.
      */
-    private static Queue<Evaluatable> convertToPostfix(List<Shuntable> tokens) {
+    private static Queue<Evaluatable> convertToPostfix(TokenCursor tokens) 
+            throws ExpressionException {
 
-        Queue<Evaluatable> outputQueue = new LinkedList<>();
-        Deque<Stackable> operatorStack = new LinkedList<>();
+        Queue<Evaluatable> outputQueue = new ArrayDeque<>();
+        Deque<Stackable> operatorStack = new ArrayDeque<>();
+        SyntaxChecker checker = new SyntaxChecker();
 
-        // Shunt each token.
-        for(Shuntable token : tokens)
+        // Check and shunt each token.
+        Shuntable token;
+        while ((token = tokens.next()) != null) {
+            checker.check(token, tokens.getTokenIndex());
             token.shunt(outputQueue, operatorStack);
+        }
+        checker.finish(tokens.getIndex());
 
-        // Add everything remaining in the operator stack to the output queue.
+        return drainOperators(outputQueue, operatorStack);
+    }
+    
+    
+    /**
+     * Converts tokens that have already been read and checked from infix notation to postfix
+     * notation.
+     * 
+     * @param tokens The tokens in infix notation.
+     * 
+     * @return The tokens in postfix notation.
+     */
+    static Queue<Evaluatable> convertToPostfix(List<Shuntable> tokens) {
+        Queue<Evaluatable> outputQueue = new ArrayDeque<>();
+        Deque<Stackable> operatorStack = new ArrayDeque<>();
+        for (Shuntable token : tokens)
+            token.shunt(outputQueue, operatorStack);
+        return drainOperators(outputQueue, operatorStack);
+    }
+    
+    
+    /**
+     * Adds everything remaining in the operator stack to the output queue.
+     * 
+     * @param outputQueue The tokens in postfix notation so far.
+     * @param operatorStack Operators that have not been output yet.
+     * 
+     * @return The output queue.
+     */
+    private static Queue<Evaluatable> drainOperators(Queue<Evaluatable> outputQueue,
+            Deque<Stackable> operatorStack) {
         while (operatorStack.size() > 0)
             outputQueue.add((Operator)operatorStack.pop());
-
         return outputQueue;
     }
-
+    
+    
+    /**
+     * Sets the cache of compiled expressions used by {@link #compile(String)} and
+     * {@link #evaluate(String)}.
+     * 
+     * @param expressionCache The cache to use, or null to disable caching.
+     */
+    public static void setCache(ExpressionCache expressionCache) {
+        cache = expressionCache;
+    }
+    
+    
+    /**
+     * Get the cache of compiled expressions.
+     * 
+     * @return The cache in use, or null if caching is disabled.
+     */
+    public static ExpressionCache getCache() {
+        return cache;
+    }
+    
+    
+    /**
+     * Compiles this mathematical expression with the default precision so that it can be
+     * evaluated repeatedly without being parsed again. If a cache has been set, the compiled
+     * expression is taken from it.
+     * 
+     * @param expressionString The <code>String</code> of math to be compiled.
+     * @param variableNames Names of the variables that may appear in the expression. Their values
+     *     are bound in this order when the compiled expression is evaluated.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    public static CompiledExpression compile(CharSequence expressionString, 
+            String... variableNames) throws ExpressionException {
+        return compile(expressionString, PRECISION, variableNames);
+    }
+    
+    
+    /**
+     * Compiles this mathematical expression so that it can be evaluated repeatedly without being
+     * parsed again. Literals, constants and variable values are all taken to the specified
+     * precision, so a lower precision makes every step of evaluation cheaper. If a cache has been
+     * set, the compiled expression is taken from it.
+     * 
+     * @param expressionString The <code>String</code> of math to be compiled.
+     * @param precision Internal precision of calculations, in digits. Presented value is one less
+     *     than this.
+     * @param variableNames Names of the variables that may appear in the expression. Their values
+     *     are bound in this order when the compiled expression is evaluated.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    public static CompiledExpression compile(CharSequence expressionString, int precision,
+            String... variableNames) throws ExpressionException {
+        if (precision < MIN_PRECISION)
+            throw new IllegalArgumentException("Precision must be at least " + MIN_PRECISION 
+                    + ": " + precision);
+        ExpressionCache expressionCache = cache;
+        if (expressionCache != null)
+            return expressionCache.get(expressionString, precision, variableNames);
+        return compileUncached(expressionString, precision, variableNames);
+    }
+    
+    
+    /**
+     * Compiles this mathematical expression without consulting the cache.
+     * 
+     * @param expressionString The <code>String</code> of math to be compiled.
+     * @param precision Internal precision of calculations, in digits.
+     * @param variableNames Names of the variables that may appear in the expression.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    static CompiledExpression compileUncached(CharSequence expressionString, int precision,
+            String... variableNames) throws ExpressionException {
+        variableNames = variableNames.clone();
+        
+        // Empty string compiles to an empty program, which evaluates to zero.
+        if (expressionString.length() == 0)
+            return new CompiledExpression(new Evaluatable[0], variableNames, precision, 0, 0);
+        
+        // Give each variable a slot.
+        List<Variable> variables = new ArrayList<>(variableNames.length);
+        for (int i = 0; i < variableNames.length; i++)
+            variables.add(new Variable(variableNames[i], i, precision));
+        
+        // Parse tokens from the string, converting them to postfix notation as they are read.
+        EvaluationMetrics metrics = EvaluationMetrics.active();
+        if (metrics != null)
+            return compileRecorded(expressionString, precision, variableNames, variables, metrics);
+        TokenCursor tokens = Tokenizer.cursor(expressionString, variables, precision);
+        Queue<Evaluatable> postfixExpression = convertToPostfix(tokens);
+        
+        // Optimize the postfix program.
+        Evaluatable[] postfix = postfixExpression.toArray(new Evaluatable[0]);
+        SyntaxChecker.checkProgram(postfix);
+        Evaluatable[] program = Optimizer.optimize(postfix, precision);
+        int maxStackDepth = SyntaxChecker.checkProgram(program);
+        
+        return new CompiledExpression(program, variableNames, precision, tokens.getTokenCount(),
+                maxStackDepth);
+    }
+    
+    
+    /**
+     * Compiles a mathematical expression while recording metrics. The tokens are all read
+     * before any are shunted, so that each phase can be timed on its own.
+     * 
+     * @param expressionString The string of math to be compiled.
+     * @param precision Internal precision of calculations, in digits.
+     * @param variableNames Names of the variables.
+     * @param variables The variables, with their slots.
+     * @param metrics Metrics to record into.
+     * 
+     * @return The compiled expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax error is encountered.
+     */
+    private static CompiledExpression compileRecorded(CharSequence expressionString, 
+            int precision, String[] variableNames, List<Variable> variables, 
+            EvaluationMetrics metrics) throws ExpressionException {
+        long start = System.nanoTime();
+        List<Shuntable> tokens = new ArrayList<>();
+        try {
+            TokenCursor cursor = Tokenizer.cursor(expressionString, variables, precision);
+            SyntaxChecker checker = new SyntaxChecker();
+            Shuntable token;
+            while ((token = cursor.next()) != null) {
+                checker.check(token, cursor.getTokenIndex());
+                tokens.add(token);
+            }
+            checker.finish(cursor.getIndex());
+        } catch (ExpressionException e) {
+            metrics.recordError(e);
+            throw e;
+        }
+        long tokenized = System.nanoTime();
+        metrics.recordPhase(EvaluationMetrics.Phase.TOKENIZE, tokenized - start);
+        
+        Queue<Evaluatable> postfixExpression = convertToPostfix(tokens);
+        long shunted = System.nanoTime();
+        metrics.recordPhase(EvaluationMetrics.Phase.SHUNT, shunted - tokenized);
+        
+        Evaluatable[] postfix = postfixExpression.toArray(new Evaluatable[0]);
+        SyntaxChecker.checkProgram(postfix);
+        Evaluatable[] program = Optimizer.optimize(postfix, precision);
+        metrics.recordPhase(EvaluationMetrics.Phase.OPTIMIZE, System.nanoTime() - shunted);
+        int maxStackDepth = SyntaxChecker.checkProgram(program);
+        
+        return new CompiledExpression(program, variableNames, precision, tokens.size(), 
+                maxStackDepth);
+    }
+    
+    
+    /**
+     * Evaluates a batch of mathematical expressions in parallel on the common fork/join pool.
+     * 
+     * @param expressionStrings The <code>String</code>s of math to be evaluated.
+     * 
+     * @return The value or exception of each expression, in the same order as the expressions.
+     */
+    public static BatchResult evaluateAll(List<String> expressionStrings) {
+        return evaluateAll(expressionStrings, ForkJoinPool.commonPool());
+    }
+    
+    
+    /**
+     * Evaluates a batch of mathematical expressions in parallel. The batch is split into chunks
+     * that adapt to how busy the workers of the pool are, and each worker evaluates its chunks in
+     * its own context. A syntax or math error in one expression does not stop the others from
+     * being evaluated.
+     * 
+     * @param expressionStrings The <code>String</code>s of math to be evaluated.
+     * @param pool The pool to evaluate the expressions on.
+     * 
+     * @return The value or exception of each expression, in the same order as the expressions.
+     */
+    public static BatchResult evaluateAll(List<String> expressionStrings, ForkJoinPool pool) {
+        String[] expressions = expressionStrings.toArray(new String[0]);
+        BatchResult result = new BatchResult(expressions.length);
+        pool.invoke(new BatchTask(expressions, result, 0, expressions.length));
+        return result;
+    }
+    
     
     /**
      * Evaluates this mathematical expression.
@@ -53,31 +294,129 @@ public class ExpressionEvaluator {
      * @throws ExpressionException Throws an exception if a syntax or math error is encountered.
      */
     public static String evaluate(String expressionString) throws ExpressionException {
-
-        // Empty string evaluates to zero.
-        if (expressionString.isEmpty())
-            return "0";
-        
-        // Parse tokens from the string.
-        List<Shuntable> tokens = Tokenizer.parseExpression(expressionString);
-
-        // Convert to postfix notation.
-        Queue<Evaluatable> postfixExpression = convertToPostfix(tokens);
+        return evaluate(expressionString, PRECISION);
+    }
+    
+    
+    /**
+     * Evaluates this mathematical expression with the specified precision.
+     * 
+     * @param expressionString The <code>String</code> of math to be evaluated.
+     * @param precision Internal precision of calculations, in digits. Presented value is one less
+     *     than this.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax or math error is encountered.
+     */
+    public static String evaluate(String expressionString, int precision) 
+            throws ExpressionException {
+        // The evaluation is recorded with Flight Recorder if it takes long.
+        EvaluationEvent event = EvaluationEvent.start();
+        CompiledExpression expression = null;
+        try {
+            expression = compile(expressionString, precision);
+            String result = expression.evaluate();
+            event.finish(expressionString, precision, expression, null);
+            return result;
+        } catch (ExpressionException e) {
+            event.finish(expressionString, precision, expression, e);
+            throw e;
+        }
+    }
+    
+    
+    /**
+     * Evaluates this mathematical expression with the specified precision, within a budget.
+     * Constant subtrees too expensive to fold while compiling are left for evaluation, so the
+     * budget covers them too.
+     * 
+     * @param expressionString The <code>String</code> of math to be evaluated.
+     * @param precision Internal precision of calculations, in digits. Presented value is one less
+     *     than this.
+     * @param budget Limits on the evaluation.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax or math error is encountered,
+     *     or a {@link BudgetExceededException} if the evaluation would go over its budget.
+     */
+    public static String evaluate(String expressionString, int precision, 
+            EvaluationBudget budget) throws ExpressionException {
         
-        // Evaluate the postfix expression.
-        Deque<Apfloat> valueStack = new LinkedList<Apfloat>();
+        // The evaluation is recorded with Flight Recorder if it takes long.
+        EvaluationEvent event = EvaluationEvent.start();
+        CompiledExpression expression = null;
         try {
-            while (postfixExpression.size() > 0) {
-                Evaluatable op = postfixExpression.remove();
-                //System.out.println(op.toString());
-                op.evaluate(valueStack);
-            }
-        } catch (ArithmeticException e) {
-            throw new ExpressionException(e.getMessage());
+            expression = compile(expressionString, precision);
+            String result = expression.evaluate(budget);
+            event.finish(expressionString, precision, expression, null);
+            return result;
+        } catch (ExpressionException e) {
+            event.finish(expressionString, precision, expression, e);
+            throw e;
         }
-
-        // Format the result.
-        return format(valueStack.pop());
+    }
+    
+    
+    /**
+     * Evaluates this mathematical expression without formatting the value, for callers that
+     * want a number rather than text.
+     * 
+     * @param expressionString The <code>String</code> of math to be evaluated.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax or math error is encountered.
+     */
+    public static EvaluationResult evaluateToValue(String expressionString) 
+            throws ExpressionException {
+        return evaluateToValue(expressionString, PRECISION);
+    }
+    
+    
+    /**
+     * Evaluates this mathematical expression with the specified precision, without formatting
+     * the value.
+     * 
+     * @param expressionString The <code>String</code> of math to be evaluated.
+     * @param precision Internal precision of calculations, in digits.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax or math error is encountered.
+     */
+    public static EvaluationResult evaluateToValue(String expressionString, int precision) 
+            throws ExpressionException {
+        // The evaluation is recorded with Flight Recorder if it takes long.
+        EvaluationEvent event = EvaluationEvent.start();
+        CompiledExpression expression = null;
+        try {
+            expression = compile(expressionString, precision);
+            EvaluationResult result = expression.evaluateToValue();
+            event.finish(expressionString, precision, expression, null);
+            return result;
+        } catch (ExpressionException e) {
+            event.finish(expressionString, precision, expression, e);
+            throw e;
+        }
+    }
+    
+    
+    /**
+     * Evaluates this mathematical expression in double precision, falling back to arbitrary
+     * precision if double precision is not enough.
+     * 
+     * @param expressionString The <code>String</code> of math to be evaluated.
+     * 
+     * @return The value of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if a syntax or math error is encountered.
+     * 
+     * @see CompiledExpression#evaluateDouble(double...)
+     */
+    public static double evaluateDouble(String expressionString) throws ExpressionException {
+        return compile(expressionString).evaluateDouble();
     }
     
     
@@ -85,15 +424,37 @@ public class ExpressionEvaluator {
      * Format the numeric result.
      * 
      * @param result The result of evaluation.
+     * @param precision Internal precision of the result, in digits.
+     * 
+     * @return The formatted result.
+     */
+    static String format(Apfloat result, int precision) {
+        EvaluationMetrics metrics = EvaluationMetrics.active();
+        if (metrics == null)
+            return formatValue(result, precision);
+        
+        long start = System.nanoTime();
+        String formatted = formatValue(result, precision);
+        metrics.recordPhase(EvaluationMetrics.Phase.FORMAT, System.nanoTime() - start);
+        return formatted;
+    }
+    
+    
+    /**
+     * Formats the result of an evaluation as a string.
+     * 
+     * @param result The result of evaluation.
+     * @param precision Internal precision of the result, in digits.
      * 
      * @return The formatted result.
      */
-    private static String format(Apfloat result) {
+    private static String formatValue(Apfloat result, int precision) {
         
-        // Scientific notation is used if the result won't otherwise fit into 20 places.
-        Apfloat roundedResult = ApfloatMath.round(result, PRECISION - 1, RoundingMode.HALF_UP);
+        // Scientific notation is used if the result won't otherwise fit into one less than the
+        // precision places.
+        Apfloat roundedResult = ApfloatMath.round(result, precision - 1, RoundingMode.HALF_UP);
         String prettyString = roundedResult.toString(true);
-        if (prettyString.length() > PRECISION + 3) {
+        if (prettyString.length() > precision + 3) {
             String uglyString = roundedResult.toString(false);
             return uglyString.replace('e', 'E');
         }
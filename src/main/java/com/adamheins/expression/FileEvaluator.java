@@ -0,0 +1,243 @@
+package com.adamheins.expression;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Evaluates a file of expressions, one per line, writing the value of each, or the message of
+ * its error, to an output file on the same line.
+ * <p>
+ * The input is memory-mapped a window at a time and split into chunks of whole lines. Worker
+ * threads tokenize, evaluate and format the lines of each chunk straight out of the mapped
+ * bytes, while the calling thread writes the finished chunks in input order. The number of
+ * chunks in flight is bounded, so memory use does not grow with the size of the file.
+ */
+public final class FileEvaluator {
+    
+    // Size of each mapped window of the input file. Grows if a single line doesn't fit.
+    private static final int WINDOW_SIZE = 64 << 20;
+    
+    // Approximate number of bytes of input in each chunk of work.
+    private static final int CHUNK_SIZE = 64 << 10;
+    
+    // Number of chunks that may be in flight per worker thread.
+    private static final int CHUNKS_PER_THREAD = 4;
+    
+    // Marks the end of the input in the queue of pending chunks.
+    private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+    
+    // Number of worker threads.
+    private final int threads;
+    
+    
+    /**
+     * Create a new FileEvaluator with a worker thread for each processor.
+     */
+    public FileEvaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    
+    /**
+     * Create a new FileEvaluator.
+     * 
+     * @param threads Number of worker threads.
+     */
+    public FileEvaluator(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        this.threads = threads;
+    }
+    
+    
+    /**
+     * Evaluates each line of the input file, writing the results to the output file in the same
+     * order. Lines may end with either "\n" or "\r\n". The input must be ASCII.
+     * 
+     * @param input File of expressions, one per line.
+     * @param output File to write the results to. It is replaced if it already exists.
+     * 
+     * @throws IOException Throws an exception if either file can't be read or written.
+     */
+    public void evaluate(Path input, Path output) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "expression-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Future<byte[]>> pending =
+                new ArrayBlockingQueue<>(threads * CHUNKS_PER_THREAD);
+        
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            // Read on a thread of its own, so that this thread is free to write.
+            Thread reader = new Thread(() -> read(in, workers, pending), "expression-reader");
+            reader.setDaemon(true);
+            reader.start();
+            
+            try {
+                write(out, pending);
+            } finally {
+                reader.interrupt();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+    
+    
+    /**
+     * Splits the input file into chunks of whole lines and submits them to the workers, queueing
+     * their results in order. Blocks while the queue is full.
+     * 
+     * @param in The input file.
+     * @param workers Executor to evaluate the chunks on.
+     * @param pending Queue of the results of the chunks, in input order.
+     */
+    private static void read(FileChannel in, ExecutorService workers,
+            BlockingQueue<Future<byte[]>> pending) {
+        try {
+            try {
+                long size = in.size();
+                long position = 0;
+                int windowSize = WINDOW_SIZE;
+                while (position < size) {
+                    int length = (int) Math.min(windowSize, size - position);
+                    boolean last = position + length == size;
+                    MappedByteBuffer window = 
+                            in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    
+                    int start = 0;
+                    while (start < length) {
+                        int end = endOfChunk(window, start, length, last);
+                        if (end < 0)
+                            break;
+                        int chunkStart = start;
+                        pending.put(workers.submit(() -> evaluateLines(window, chunkStart, end)));
+                        start = end;
+                    }
+                    
+                    // A line that doesn't fit in a whole window needs a bigger one.
+                    if (start == 0 && !last) {
+                        if (windowSize == Integer.MAX_VALUE)
+                            throw new IOException("Line at byte " + position + " is too long.");
+                        windowSize = (int) Math.min(2L * windowSize, Integer.MAX_VALUE);
+                    }
+                    position += start;
+                }
+            } catch (IOException e) {
+                pending.put(CompletableFuture.failedFuture(e));
+                return;
+            }
+            pending.put(END);
+        } catch (InterruptedException e) {
+            // The writer has given up.
+        }
+    }
+    
+    
+    /**
+     * Finds the end of the chunk starting at an index of a window, which is just after the first
+     * line break at least {@link #CHUNK_SIZE} bytes in.
+     * 
+     * @param window The mapped window.
+     * @param start Index of the start of the chunk.
+     * @param length Number of bytes in the window.
+     * @param last True if the window reaches the end of the file.
+     * 
+     * @return Index just after the end of the chunk, or -1 if the rest of the window doesn't
+     *     hold a complete line.
+     */
+    private static int endOfChunk(ByteBuffer window, int start, int length, boolean last) {
+        int i = (int) Math.min((long) start + CHUNK_SIZE, length) - 1;
+        for (; i < length; i++) {
+            if (window.get(i) == '\n')
+                return i + 1;
+        }
+        return last ? length : -1;
+    }
+    
+    
+    /**
+     * Evaluates each line in a chunk of the input.
+     * 
+     * @param window The mapped window holding the chunk.
+     * @param start Index of the start of the chunk.
+     * @param end Index just after the end of the chunk.
+     * 
+     * @return The results, one per line, encoded for the output file.
+     */
+    private static byte[] evaluateLines(ByteBuffer window, int start, int end) {
+        EvaluationContext context = EvaluationContext.forCurrentThread();
+        StringBuilder results = new StringBuilder();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && window.get(lineEnd) != '\n')
+                lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r')
+                lineEnd--;
+            
+            CharSequence line = new ByteSequence(window, lineStart, lineEnd - lineStart);
+            try {
+                results.append(ExpressionEvaluator.compile(line).evaluate(context));
+            } catch (ExpressionException e) {
+                results.append(e.getMessage());
+            }
+            results.append('\n');
+            lineStart = next;
+        }
+        return results.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    
+    /**
+     * Writes the results of each chunk to the output file as they become available, in order.
+     * 
+     * @param out The output file.
+     * @param pending Queue of the results of the chunks, in input order.
+     * 
+     * @throws IOException Throws an exception if the input can't be read or the output can't be
+     *     written.
+     */
+    private static void write(FileChannel out, BlockingQueue<Future<byte[]>> pending)
+            throws IOException {
+        try {
+            Future<byte[]> chunk;
+            while ((chunk = pending.take()) != END) {
+                ByteBuffer bytes = ByteBuffer.wrap(chunk.get());
+                while (bytes.hasRemaining())
+                    out.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while evaluating file.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
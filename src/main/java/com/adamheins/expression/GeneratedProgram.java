@@ -0,0 +1,26 @@
+package com.adamheins.expression;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Implemented by classes generated at run time from a postfix program. A generated program
+ * computes the same result as interpreting the postfix program, but as straight-line code that
+ * keeps values in local variables instead of on a value stack.
+ */
+interface GeneratedProgram {
+    
+    /**
+     * Runs the program.
+     * 
+     * @param literals Values of the literal steps of the program, indexed by step.
+     * @param program The postfix program the class was generated from.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The value of the program.
+     * 
+     * @throws ExpressionException If an operation causes a math error.
+     */
+    Apfloat run(Apfloat[] literals, Evaluatable[] program, Apfloat[] values) 
+            throws ExpressionException;
+}
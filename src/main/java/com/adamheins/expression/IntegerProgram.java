@@ -0,0 +1,429 @@
+package com.adamheins.expression;
+
+import org.apfloat.Apfloat;
+import org.apfloat.Apint;
+import org.apfloat.ApintMath;
+
+
+/**
+ * A postfix program made up only of integer arithmetic, prepared for exact evaluation. It first
+ * runs on longs, with overflow checks. If a step overflows, it runs again on Apints. If a step
+ * would give a value that is not an integer, such as 7/2, or a power or factorial with many more
+ * digits than the working precision keeps, evaluation gives up so that the caller can fall back
+ * to Apfloat.
+ */
+final class IntegerProgram {
+    
+    // Powers of ten that fit in a long.
+    private static final long[] POWERS_OF_TEN = new long[19];
+    
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+    
+    // Ten, as an Apint.
+    private static final Apint TEN = new Apint(10);
+    
+    // The postfix program.
+    private final Evaluatable[] program;
+    
+    // Kind of each step.
+    private final byte[] kinds;
+    
+    // Value of each literal step that fits in a long.
+    private final long[] literals;
+    
+    // Value of each literal step, as an Apint.
+    private final Apint[] bigLiterals;
+    
+    // Whether every literal fits in a long.
+    private boolean longLiterals = true;
+    
+    // Slot of each variable step.
+    private final int[] slots;
+    
+    // Operator of each unary, binary and reduced step.
+    private final Operator[] operators;
+    
+    // Reduced operator of each reduced step.
+    private final ReducedOperator[] reducedOperators;
+    
+    // Maximum number of values on the stack.
+    private final int maxStackDepth;
+    
+    // Working precision of the expression, in digits.
+    private final int precision;
+    
+    
+    /**
+     * Create a new IntegerProgram.
+     * 
+     * @param program The decoded postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision of the expression, in digits.
+     */
+    private IntegerProgram(DecodedProgram program, int maxStackDepth, int precision) {
+        this.program = program.steps;
+        this.kinds = program.kinds;
+        this.literals = new long[program.length()];
+        this.bigLiterals = new Apint[program.length()];
+        this.slots = program.slots;
+        this.operators = program.operators;
+        this.reducedOperators = program.reducedOperators;
+        this.maxStackDepth = maxStackDepth;
+        this.precision = precision;
+    }
+    
+    
+    /**
+     * Prepares a program for exact integer evaluation.
+     * 
+     * @param program The decoded postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The prepared program, or null if the program contains anything other than integer
+     *     literals, variables and integer arithmetic.
+     */
+    static IntegerProgram prepare(DecodedProgram program, int maxStackDepth, int precision) {
+        IntegerProgram prepared = new IntegerProgram(program, maxStackDepth, precision);
+        for (int i = 0; i < program.length(); i++) {
+            switch (program.kinds[i]) {
+            case DecodedProgram.LITERAL:
+                
+                // Constants are never integers, so they are turned away here too.
+                Apfloat value = program.literals[i];
+                if (value.compareTo(value.truncate()) != 0)
+                    return null;
+                prepared.bigLiterals[i] = value.truncate();
+                if (Integers.isLong(value))
+                    prepared.literals[i] = value.longValue();
+                else
+                    prepared.longLiterals = false;
+                break;
+            case DecodedProgram.VARIABLE:
+                break;
+            case DecodedProgram.REDUCED:
+                ReducedOperator reduced = program.reducedOperators[i];
+                if (reduced.getOperator() == Operator.ROOT || reduced.getLiteral() < 0)
+                    return null;
+                break;
+            default:
+                if (!isIntegerOperator(program.operators[i]))
+                    return null;
+                break;
+            }
+        }
+        return prepared;
+    }
+    
+    
+    /**
+     * Checks if an Operator gives an integer when applied to integers, at least for some
+     * operands.
+     * 
+     * @param operator The Operator.
+     * 
+     * @return True if the Operator is integer arithmetic, false otherwise.
+     */
+    private static boolean isIntegerOperator(Operator operator) {
+        switch (operator) {
+        case PLUS:
+        case MINUS:
+        case NEGATE:
+        case MULTIPLY:
+        case DIVIDE:
+        case MODULO:
+        case POW:
+        case SCI_NOTATION:
+        case FACTORIAL:
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    
+    /**
+     * Checks if the variables have values this program can be evaluated with.
+     * 
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return True if every variable of the program has an integer value, false otherwise.
+     */
+    boolean accepts(Apfloat[] values) {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == DecodedProgram.VARIABLE) {
+                Apfloat value = values[slots[i]];
+                if (value == null || value.compareTo(value.truncate()) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Runs the program.
+     * 
+     * @param context Context to evaluate the program in.
+     * @param values Values of the variables, in slot order.
+     * @param meter Budget to charge the steps that don't fit in a long to, or null if there is
+     *     no budget.
+     * 
+     * @return The exact value of the program, or null if a value is not an integer.
+     * 
+     * @throws BudgetExceededException Throws an exception if the program goes over its budget.
+     */
+    Apfloat evaluate(EvaluationContext context, Apfloat[] values, BudgetMeter meter) 
+            throws BudgetExceededException {
+        long[] stack = context.getLongStack(maxStackDepth);
+        Apint result;
+        if (longLiterals && evaluateLong(stack, values))
+            result = new Apint(stack[0]);
+        else {
+            result = evaluateApint(values, meter);
+            if (result == null)
+                return null;
+        }
+        return Integers.toApfloat(result, precision);
+    }
+    
+    
+    /**
+     * Runs the program on longs.
+     * 
+     * @param stack Stack to run the program on. The result is left at the bottom.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return True if the program ran, false if a value overflowed or is not an integer.
+     */
+    private boolean evaluateLong(long[] stack, Apfloat[] values) {
+        int top = 0;
+        try {
+            for (int i = 0; i < kinds.length; i++) {
+                long result;
+                switch (kinds[i]) {
+                case DecodedProgram.LITERAL:
+                    result = literals[i];
+                    break;
+                case DecodedProgram.VARIABLE:
+                    Apfloat value = values[slots[i]];
+                    if (value == null || !Integers.isLong(value))
+                        return false;
+                    result = value.longValue();
+                    break;
+                case DecodedProgram.UNARY:
+                    top--;
+                    if (operators[i] == Operator.NEGATE)
+                        result = Math.negateExact(stack[top]);
+                    else if (stack[top] < 0 || stack[top] > Integers.MAX_LONG_FACTORIAL)
+                        return false;
+                    else
+                        result = Integers.factorial((int) stack[top]);
+                    break;
+                case DecodedProgram.BINARY:
+                    top -= 2;
+                    long left = stack[top];
+                    long right = stack[top + 1];
+                    switch (operators[i]) {
+                    case PLUS:
+                        result = Math.addExact(left, right);
+                        break;
+                    case MINUS:
+                        result = Math.subtractExact(left, right);
+                        break;
+                    case MULTIPLY:
+                        result = Math.multiplyExact(left, right);
+                        break;
+                    case DIVIDE:
+                        if (right == 0 || left % right != 0 
+                                || (left == Long.MIN_VALUE && right == -1))
+                            return false;
+                        result = left / right;
+                        break;
+                    case MODULO:
+                        if (right == 0)
+                            return false;
+                        result = left % right;
+                        break;
+                    case POW:
+                        if (right < 0 || (left == 0 && right == 0))
+                            return false;
+                        result = pow(left, right);
+                        break;
+                    default:
+                        if (right < 0 || right >= POWERS_OF_TEN.length)
+                            return false;
+                        result = Math.multiplyExact(left, POWERS_OF_TEN[(int) right]);
+                        break;
+                    }
+                    break;
+                default:
+                    top--;
+                    long literal = reducedOperators[i].getLiteral();
+                    if (operators[i] == Operator.POW) {
+                        if (stack[top] == 0 && literal == 0)
+                            return false;
+                        result = pow(stack[top], literal);
+                    } else if (literal >= POWERS_OF_TEN.length)
+                        return false;
+                    else
+                        result = Math.multiplyExact(stack[top], POWERS_OF_TEN[(int) literal]);
+                    break;
+                }
+                stack[top++] = result;
+            }
+        } catch (ArithmeticException e) {
+            
+            // Overflow.
+            return false;
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Raises a long to a non-negative power by repeated squaring.
+     * 
+     * @param base The base.
+     * @param exponent The exponent.
+     * 
+     * @return The power.
+     * 
+     * @throws ArithmeticException If the power overflows a long.
+     */
+    private static long pow(long base, long exponent) {
+        long result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0)
+                result = Math.multiplyExact(result, base);
+            exponent >>= 1;
+            if (exponent > 0)
+                base = Math.multiplyExact(base, base);
+        }
+        return result;
+    }
+    
+    
+    /**
+     * Runs the program on Apints.
+     * 
+     * @param values Values of the variables, in slot order.
+     * @param meter Budget to charge each step to, or null if there is no budget.
+     * 
+     * @return The value of the program, or null if a value is not an integer.
+     * 
+     * @throws BudgetExceededException Throws an exception if the program goes over its budget.
+     */
+    private Apint evaluateApint(Apfloat[] values, BudgetMeter meter) 
+            throws BudgetExceededException {
+        Apint[] stack = new Apint[maxStackDepth];
+        int top = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (meter != null) {
+                int arity = program[i].getArity();
+                Apint[] operands = new Apint[Math.min(arity, top)];
+                System.arraycopy(stack, top - operands.length, operands, 0, operands.length);
+                meter.charge(program[i], operands);
+            }
+            
+            Apint result;
+            switch (kinds[i]) {
+            case DecodedProgram.LITERAL:
+                result = bigLiterals[i];
+                break;
+            case DecodedProgram.VARIABLE:
+                Apfloat value = values[slots[i]];
+                if (value == null || value.compareTo(value.truncate()) != 0)
+                    return null;
+                result = value.truncate();
+                break;
+            case DecodedProgram.UNARY:
+                top--;
+                if (operators[i] == Operator.NEGATE)
+                    result = stack[top].negate();
+                else if (stack[top].signum() < 0 || !Integers.isLong(stack[top])
+                        || !fits(i, stack[top]))
+                    return null;
+                else
+                    result = Integers.bigFactorial(stack[top].longValue());
+                break;
+            case DecodedProgram.BINARY:
+                top -= 2;
+                Apint left = stack[top];
+                Apint right = stack[top + 1];
+                switch (operators[i]) {
+                case PLUS:
+                    result = left.add(right);
+                    break;
+                case MINUS:
+                    result = left.subtract(right);
+                    break;
+                case MULTIPLY:
+                    result = left.multiply(right);
+                    break;
+                case DIVIDE:
+                    if (right.signum() == 0 || left.mod(right).signum() != 0)
+                        return null;
+                    result = left.divide(right);
+                    break;
+                case MODULO:
+                    if (right.signum() == 0)
+                        return null;
+                    result = left.mod(right);
+                    break;
+                case POW:
+                    if (right.signum() < 0 || !Integers.isLong(right)
+                            || (left.signum() == 0 && right.signum() == 0)
+                            || !fits(i, left, right))
+                        return null;
+                    result = ApintMath.pow(left, right.longValue());
+                    break;
+                default:
+                    if (right.signum() < 0 || !Integers.isLong(right) || !fits(i, left, right))
+                        return null;
+                    result = left.multiply(ApintMath.pow(TEN, right.longValue()));
+                    break;
+                }
+                break;
+            default:
+                top--;
+                long literal = reducedOperators[i].getLiteral();
+                if (!fits(i, stack[top]))
+                    return null;
+                if (operators[i] == Operator.POW) {
+                    if (stack[top].signum() == 0 && literal == 0)
+                        return null;
+                    result = ApintMath.pow(stack[top], literal);
+                } else
+                    result = stack[top].multiply(ApintMath.pow(TEN, literal));
+                break;
+            }
+            stack[top++] = result;
+        }
+        return stack[0];
+    }
+    
+    
+    /**
+     * Checks if the result of a power, factorial or scientific notation step is small enough to
+     * be worth computing exactly, by predicting its number of digits from its operands.
+     * 
+     * @param step Index of the step.
+     * @param operands Operands of the step, in order.
+     * 
+     * @return True if the result has at most {@link Integers#EXACT_GROWTH} times as many digits
+     *     as the working precision, false otherwise.
+     */
+    private boolean fits(int step, Apint... operands) {
+        CostEstimator.Estimate[] estimates = new CostEstimator.Estimate[operands.length];
+        for (int i = 0; i < operands.length; i++)
+            estimates[i] = CostEstimator.Estimate.of(operands[i]);
+        CostEstimator.Estimate result = 
+                CostEstimator.estimateResult(program[step], estimates, precision);
+        return result.digits <= Integers.EXACT_GROWTH * precision;
+    }
+}
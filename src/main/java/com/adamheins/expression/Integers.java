@@ -0,0 +1,161 @@
+package com.adamheins.expression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apfloat.Apfloat;
+import org.apfloat.Apint;
+
+
+/**
+ * Helpers for working with integer values.
+ */
+final class Integers {
+    
+    // Bounds of the long range.
+    private static final Apint LONG_MIN = new Apint(Long.MIN_VALUE);
+    private static final Apint LONG_MAX = new Apint(Long.MAX_VALUE);
+    
+    /** Largest n whose factorial fits in a long. */
+    static final int MAX_LONG_FACTORIAL = 20;
+    
+    /** Largest n whose factorial is exactly representable as a double. */
+    static final int MAX_EXACT_DOUBLE_FACTORIAL = 18;
+    
+    /**
+     * Number of times the working precision that an integer can have as digits and still be
+     * worth keeping exactly. Beyond that, computing every digit costs far more than the rounded
+     * result is worth.
+     */
+    static final long EXACT_GROWTH = 4;
+    
+    // Factorials of 0 to MAX_LONG_FACTORIAL.
+    private static final long[] FACTORIALS = new long[MAX_LONG_FACTORIAL + 1];
+    
+    static {
+        FACTORIALS[0] = 1;
+        for (int i = 1; i < FACTORIALS.length; i++)
+            FACTORIALS[i] = FACTORIALS[i - 1] * i;
+    }
+    
+    // Largest n whose factorial is kept once computed.
+    private static final long MAX_CACHED_FACTORIAL = 10000;
+    
+    // Maximum number of factorials kept once computed.
+    private static final int MAX_CACHED_FACTORIALS = 64;
+    
+    // Number of factors below which a product is multiplied out one factor at a time.
+    private static final long PRODUCT_SPLIT_THRESHOLD = 16;
+    
+    // Factorials larger than a long that have been computed, keyed by n. Later factorials
+    // continue from the closest one below them instead of starting again from 1.
+    private static final ConcurrentSkipListMap<Long, Apint> FACTORIAL_CACHE = 
+            new ConcurrentSkipListMap<>();
+    
+    
+    private Integers() {}
+    
+    
+    /**
+     * Get the factorial of a small integer.
+     * 
+     * @param n An integer from 0 to {@link #MAX_LONG_FACTORIAL}.
+     * 
+     * @return The factorial of n.
+     */
+    static long factorial(int n) {
+        return FACTORIALS[n];
+    }
+    
+    
+    /**
+     * Get the factorial of any integer. Small factorials come from a table. Larger ones are
+     * continued from the closest factorial computed before, and kept for later if they aren't
+     * too large.
+     * 
+     * @param n A non-negative integer.
+     * 
+     * @return The factorial of n.
+     */
+    static Apint bigFactorial(long n) {
+        if (n <= MAX_LONG_FACTORIAL)
+            return new Apint(FACTORIALS[(int) n]);
+        
+        long start = MAX_LONG_FACTORIAL;
+        Apint result = new Apint(FACTORIALS[MAX_LONG_FACTORIAL]);
+        Map.Entry<Long, Apint> closest = FACTORIAL_CACHE.floorEntry(n);
+        if (closest != null) {
+            start = closest.getKey();
+            result = closest.getValue();
+        }
+        if (start == n)
+            return result;
+        
+        result = result.multiply(product(start + 1, n));
+        if (n <= MAX_CACHED_FACTORIAL && FACTORIAL_CACHE.size() < MAX_CACHED_FACTORIALS)
+            FACTORIAL_CACHE.putIfAbsent(n, result);
+        return result;
+    }
+    
+    
+    /**
+     * Multiplies the integers in a range. The range is split in halves, so that the operands of
+     * each multiplication are of similar size, which is much faster for large numbers than
+     * multiplying one factor at a time.
+     * 
+     * @param low The first factor.
+     * @param high The last factor.
+     * 
+     * @return The product of the integers from low to high.
+     */
+    private static Apint product(long low, long high) {
+        if (high - low < PRODUCT_SPLIT_THRESHOLD) {
+            Apint result = new Apint(low);
+            for (long i = low + 1; i <= high; i++)
+                result = result.multiply(new Apint(i));
+            return result;
+        }
+        long middle = (low + high) >>> 1;
+        return product(low, middle).multiply(product(middle + 1, high));
+    }
+    
+    
+    /**
+     * Converts an exact integer to an Apfloat that can take part in arithmetic with values at the
+     * working precision. The precision holds every digit of the integer, and the working
+     * precision again as guard digits, so that operators which reduce their operand, such as
+     * sin of a large integer, still have that many digits left after the integer part. Integers
+     * with more than {@link #EXACT_GROWTH} times as many digits as the working precision are
+     * rounded to the working precision instead, so that later operators don't work on every
+     * digit.
+     * 
+     * @param value The integer.
+     * @param precision The working precision, in digits.
+     * 
+     * @return The integer, with finite precision.
+     */
+    static Apfloat toApfloat(Apint value, long precision) {
+        long digits = Math.max(value.scale(), 0);
+        if (digits > EXACT_GROWTH * precision)
+            return value.precision(precision);
+        return value.precision(digits + precision);
+    }
+    
+    
+    /**
+     * Checks if a value is an integer that fits in a long.
+     * 
+     * @param value The value to check.
+     * 
+     * @return True if the value is an integer in the long range, false otherwise.
+     */
+    static boolean isLong(Apfloat value) {
+        if (value.signum() == 0)
+            return true;
+        if (value.scale() > 19)
+            return false;
+        Apint integer = value.truncate();
+        return integer.compareTo(value) == 0 
+                && integer.compareTo(LONG_MIN) >= 0 && integer.compareTo(LONG_MAX) <= 0;
+    }
+}
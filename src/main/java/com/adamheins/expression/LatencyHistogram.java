@@ -0,0 +1,115 @@
+package com.adamheins.expression;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of durations with buckets that double in width, which can be recorded into from
+ * many threads without contention. Bucket i counts durations below 2<sup>i</sup> nanoseconds
+ * that aren't counted by a smaller bucket.
+ */
+final class LatencyHistogram {
+    
+    /** Number of buckets. The last one also counts every duration too long for the others. */
+    static final int BUCKET_COUNT = 40;
+    
+    // Count of durations in each bucket.
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    
+    // Sum of all durations, in nanoseconds.
+    private final LongAdder totalNanos = new LongAdder();
+    
+    
+    /**
+     * Create a new, empty LatencyHistogram.
+     */
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            buckets[i] = new LongAdder();
+    }
+    
+    
+    /**
+     * Records a duration.
+     * 
+     * @param nanos The duration, in nanoseconds. Negative durations count as zero.
+     */
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+    }
+    
+    
+    /**
+     * Get the number of durations in each bucket.
+     * 
+     * @return The counts, indexed by bucket.
+     */
+    long[] getBuckets() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts[i] = buckets[i].sum();
+        return counts;
+    }
+    
+    
+    /**
+     * Get the number of durations recorded.
+     * 
+     * @return The count.
+     */
+    long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets)
+            count += bucket.sum();
+        return count;
+    }
+    
+    
+    /**
+     * Get the sum of the durations recorded.
+     * 
+     * @return The sum, in nanoseconds.
+     */
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+    
+    
+    /**
+     * Estimates a percentile of the durations, as the upper bound of the bucket it falls in.
+     * 
+     * @param percentile The percentile, from 0 to 100.
+     * 
+     * @return The estimated percentile, in nanoseconds, or 0 if nothing has been recorded.
+     */
+    long getPercentile(double percentile) {
+        long[] counts = getBuckets();
+        long count = 0;
+        for (long bucketCount : counts)
+            count += bucketCount;
+        if (count == 0)
+            return 0;
+        
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return 1L << i;
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+    
+    
+    /**
+     * Clears the histogram.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        totalNanos.reset();
+    }
+}
@@ -10,22 +10,74 @@ import org.apfloat.Apfloat;
  */
 public class Number implements Shuntable, Evaluatable {
     
+    // Text of the number, as it was written, or null until it is first needed if the number was
+    // created from a value.
+    private String literal;
+    
     // Value of the number.
-    private String value;
+    private final Apfloat value;
+    
+    
+    /**
+     * Create a new Number with the default precision.
+     * 
+     * @param literal The text of the number.
+     * 
+     * @throws NumberFormatException If the text is not a valid number.
+     */
+    public Number(String literal) {
+        this(literal, ExpressionEvaluator.PRECISION);
+    }
     
     
     /**
      * Create a new Number.
      * 
+     * @param literal The text of the number.
+     * @param precision Precision of the value, in digits.
+     * 
+     * @throws NumberFormatException If the text is not a valid number.
+     */
+    Number(String literal, int precision) {
+        this.literal = literal;
+        this.value = new Apfloat(literal, precision);
+    }
+    
+    
+    /**
+     * Create a new Number from a value that has already been computed.
+     * 
      * @param value The value of the number.
      */
-    public Number(String value) {
+    Number(Apfloat value) {
         this.value = value;
     }
+    
+    
+    /**
+     * Create a new Number from a literal whose value has already been parsed.
+     * 
+     * @param literal The text of the number, as it was written.
+     * @param value The value of the number.
+     */
+    Number(String literal, Apfloat value) {
+        this.literal = literal;
+        this.value = value;
+    }
+    
+    
+    /**
+     * Get the value of the number.
+     * 
+     * @return The value of the number.
+     */
+    Apfloat getValue() {
+        return value;
+    }
 
     @Override
-    public void evaluate(Deque<Apfloat> valueStack) {
-        valueStack.push(new Apfloat(value, ExpressionEvaluator.PRECISION));
+    public void evaluate(EvaluationContext context) {
+        context.push(value);
     }
 
     @Override
@@ -35,6 +87,11 @@ public class Number implements Shuntable, Evaluatable {
     
     @Override
     public String toString() {
-        return value;
+        
+        // Racing threads compute the same String, so the field doesn't need to be volatile.
+        String text = literal;
+        if (text == null)
+            literal = text = value.toString(true);
+        return text;
     }
 }
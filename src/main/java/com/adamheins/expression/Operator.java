@@ -5,6 +5,7 @@ import java.util.Queue;
 
 import org.apfloat.Apfloat;
 import org.apfloat.ApfloatMath;
+import org.apfloat.Apint;
 import org.apfloat.ApintMath;
 
 /**
@@ -14,154 +15,325 @@ public enum Operator implements Stackable, Evaluatable {
     
     PLUS("+", Associativity.BINARY_LEFT, Precedence.ADDITION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(left.add(right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return left.add(right);
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            return left + right;
+        }
+        
+        @Override
+        void apply(double[] left, double[] right, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = left[i] + right[i];
         }
     }, MINUS("-", Associativity.BINARY_LEFT, Precedence.ADDITION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(left.subtract(right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return left.subtract(right);
         }        
+        
+        @Override
+        double apply(double left, double right) {
+            return left - right;
+        }
+        
+        @Override
+        void apply(double[] left, double[] right, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = left[i] - right[i];
+        }
     }, NEGATE("-", Associativity.UNARY_RIGHT, Precedence.EXPONENTIATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(valueStack.pop().negate());
+        Apfloat apply(Apfloat operand) {
+            return operand.negate();
         }        
+        
+        @Override
+        double apply(double operand) {
+            return -operand;
+        }
+        
+        @Override
+        void apply(double[] operand, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = -operand[i];
+        }
     }, MULTIPLY("*", Associativity.BINARY_LEFT, Precedence.MULTIPLICATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(left.multiply(right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return left.multiply(right);
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            return left * right;
+        }
+        
+        @Override
+        void apply(double[] left, double[] right, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = left[i] * right[i];
         }
     }, DIVIDE("/", Associativity.BINARY_LEFT, Precedence.MULTIPLICATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(left.divide(right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return left.divide(right);
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            return left / right;
+        }
+        
+        @Override
+        void apply(double[] left, double[] right, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = left[i] / right[i];
         }
     }, MODULO("%", Associativity.BINARY_LEFT, Precedence.MULTIPLICATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(left.mod(right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return left.mod(right);
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            return left % right;
         }
     }, POW("^", Associativity.BINARY_RIGHT, Precedence.EXPONENTIATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(ApfloatMath.pow(left, right));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            
+            // Integer powers are computed exactly by repeated multiplication.
+            if (Integers.isLong(right))
+                return ApfloatMath.pow(left, right.longValue());
+            return ApfloatMath.pow(left, right);
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            return Math.pow(left, right);
         }
     }, SCI_NOTATION("E", Associativity.BINARY_RIGHT, Precedence.SCI_NOT) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(ApfloatMath.scale(left, right.longValue()));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return ApfloatMath.scale(left, right.longValue());
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            double result = left * Math.pow(10, (long) right);
+            
+            // A result below the normal range has lost digits, or underflowed to zero, where
+            // Apfloat keeps it exactly.
+            if (result != 0 ? Math.abs(result) < Double.MIN_NORMAL : left != 0)
+                return Double.NaN;
+            return result;
         }
     }, ROOT("rt", Associativity.BINARY_RIGHT, Precedence.EXPONENTIATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat right = valueStack.pop();
-            Apfloat left = valueStack.pop();
-            valueStack.push(ApfloatMath.root(right, left.longValue()));
+        Apfloat apply(Apfloat left, Apfloat right) {
+            return ApfloatMath.root(right, left.longValue());
+        }
+        
+        @Override
+        double apply(double left, double right) {
+            long index = (long) left;
+            if (index == 2)
+                return Math.sqrt(right);
+            if (index == 3)
+                return Math.cbrt(right);
+            if (right < 0 && index % 2 != 0)
+                return -Math.pow(-right, 1.0 / index);
+            return index == 0 || right < 0 ? Double.NaN : Math.pow(right, 1.0 / index);
         }
     }, LOG("log", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.log(valueStack.pop(), new Apfloat("10")));
+        Apfloat apply(Apfloat operand, int precision) {
+            return ApfloatMath.log(round(operand, precision)).divide(
+                    AuxiliaryValue.LN_10.getValue(precision));
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.log10(operand);
         }
     }, LN("ln", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.log(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.log(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.log(operand);
         }
     }, SINH("sinh", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.sinh(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.sinh(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.sinh(operand);
         }
     }, COSH("cosh", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.cosh(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.cosh(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.cosh(operand);
         }
     }, TANH("tanh", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.tanh(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.tanh(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.tanh(operand);
         }
     }, SIN("sin", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.sin(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.sin(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.sin(operand);
         }
     }, COS("cos", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.cos(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.cos(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.cos(operand);
         }
     }, TAN("tan", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.tan(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.tan(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.tan(operand);
         }
     }, ASIN("asin", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.asin(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.asin(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.asin(operand);
         }
     }, ACOS("acos", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat num = valueStack.pop();
-            if (num.intValue() == 0)
-                valueStack.push(num);
-            else
-                valueStack.push(ApfloatMath.acos(num));
+        Apfloat apply(Apfloat operand) {
+            if (operand.intValue() == 0)
+                return operand;
+            return ApfloatMath.acos(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            if ((int) operand == 0)
+                return operand;
+            return Math.acos(operand);
         }
     }, ATAN("atan", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.atan(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.atan(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.atan(operand);
         }
     }, FACTORIAL("!", Associativity.UNARY_LEFT, Precedence.FACTORIAL) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) throws ExpressionException {
-            String numStr = valueStack.pop().toString();
-            if (numStr.contains("."))
+        Apfloat apply(Apfloat operand, int precision) throws ExpressionException {
+            if (!Integers.isLong(operand))
                 throw new ExpressionException("Math error.");
-            valueStack.push(new Apfloat(ApintMath.factorial(Long.parseLong(numStr)).toString()));
+            
+            // Negative operands are left to Apfloat, which rejects them with its own message.
+            if (operand.signum() < 0)
+                return ApintMath.factorial(operand.longValue());
+            Apint factorial = Integers.bigFactorial(operand.longValue());
+            if (operand.precision() == Apfloat.INFINITE)
+                return factorial;
+            return Integers.toApfloat(factorial, precision);
+        }
+        
+        @Override
+        double apply(double operand) {
+            
+            // Only factorials that are exact in a double are computed here.
+            if (operand < 0 || operand > Integers.MAX_EXACT_DOUBLE_FACTORIAL 
+                    || operand != Math.rint(operand))
+                return Double.NaN;
+            return Integers.factorial((int) operand);
         }
     }, SQRT("sqrt", Associativity.UNARY_RIGHT, Precedence.EXPONENTIATION) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            valueStack.push(ApfloatMath.sqrt(valueStack.pop()));
+        Apfloat apply(Apfloat operand) {
+            return ApfloatMath.sqrt(operand);
+        }
+        
+        @Override
+        double apply(double operand) {
+            return Math.sqrt(operand);
+        }
+        
+        @Override
+        void apply(double[] operand, double[] result, int length) {
+            for (int i = 0; i < length; i++)
+                result[i] = Math.sqrt(operand[i]);
         }
     }, TO_RADIANS("r", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat num = valueStack.pop();
-            if (num.intValue() == 0)
-                valueStack.push(num);
-            else
-                valueStack.push(ApfloatMath.toRadians(num));
+        Apfloat apply(Apfloat operand, int precision) {
+            if (operand.intValue() == 0)
+                return operand;
+            return round(operand, precision).multiply(
+                    AuxiliaryValue.RADIANS_PER_DEGREE.getValue(precision));
+        }
+        
+        @Override
+        double apply(double operand) {
+            if ((int) operand == 0)
+                return operand;
+            return Math.toRadians(operand);
         }
     }, TO_DEGREES("d", Associativity.UNARY_RIGHT, Precedence.TRIG) {
         @Override
-        public void evaluate(Deque<Apfloat> valueStack) {
-            Apfloat num = valueStack.pop();
-            if (num.intValue() == 0)
-                valueStack.push(num);
-            else
-                valueStack.push(ApfloatMath.toDegrees(num));
+        Apfloat apply(Apfloat operand, int precision) {
+            if (operand.intValue() == 0)
+                return operand;
+            return round(operand, precision).multiply(
+                    AuxiliaryValue.DEGREES_PER_RADIAN.getValue(precision));
+        }
+        
+        @Override
+        double apply(double operand) {
+            if ((int) operand == 0)
+                return operand;
+            return Math.toDegrees(operand);
         }
     };
 
@@ -182,6 +354,137 @@ public enum Operator implements Stackable, Evaluatable {
     }
     
     
+    /**
+     * Applies this binary Operator to its operands.
+     * 
+     * @param left The left operand.
+     * @param right The right operand.
+     * 
+     * @return The result of the operation.
+     * 
+     * @throws ExpressionException If the operation causes a math error.
+     */
+    Apfloat apply(Apfloat left, Apfloat right) throws ExpressionException {
+        throw new UnsupportedOperationException(name() + " is not a binary operator.");
+    }
+    
+    
+    /**
+     * Applies this unary Operator to its operand.
+     * 
+     * @param operand The operand.
+     * 
+     * @return The result of the operation.
+     * 
+     * @throws ExpressionException If the operation causes a math error.
+     */
+    Apfloat apply(Apfloat operand) throws ExpressionException {
+        throw new UnsupportedOperationException(name() + " is not a unary operator.");
+    }
+    
+    
+    /**
+     * Applies this unary Operator to its operand, in an expression evaluated at a given
+     * precision. Operators whose result depends on the working precision rather than only on the
+     * precision of their operand override this, and the others apply themselves as usual.
+     * 
+     * @param operand The operand.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The result of the operation.
+     * 
+     * @throws ExpressionException If the operation causes a math error.
+     */
+    Apfloat apply(Apfloat operand, int precision) throws ExpressionException {
+        return apply(operand);
+    }
+    
+    
+    /**
+     * Applies this binary Operator to its operands in double precision.
+     * 
+     * @param left The left operand.
+     * @param right The right operand.
+     * 
+     * @return The result of the operation, or NaN if it can't be computed in double precision.
+     */
+    double apply(double left, double right) {
+        throw new UnsupportedOperationException(name() + " is not a binary operator.");
+    }
+    
+    
+    /**
+     * Applies this unary Operator to its operand in double precision.
+     * 
+     * @param operand The operand.
+     * 
+     * @return The result of the operation, or NaN if it can't be computed in double precision.
+     */
+    double apply(double operand) {
+        throw new UnsupportedOperationException(name() + " is not a unary operator.");
+    }
+    
+    
+    /**
+     * Applies this binary Operator to columns of operands in double precision. Operators with a
+     * simple loop body override this so that the JIT can vectorize it.
+     * 
+     * @param left The left operands.
+     * @param right The right operands.
+     * @param result Array to store the results in. May be one of the operand arrays.
+     * @param length Number of operands in each column.
+     */
+    void apply(double[] left, double[] right, double[] result, int length) {
+        for (int i = 0; i < length; i++)
+            result[i] = apply(left[i], right[i]);
+    }
+    
+    
+    /**
+     * Applies this unary Operator to a column of operands in double precision. Operators with a
+     * simple loop body override this so that the JIT can vectorize it.
+     * 
+     * @param operand The operands.
+     * @param result Array to store the results in. May be the operand array.
+     * @param length Number of operands in the column.
+     */
+    void apply(double[] operand, double[] result, int length) {
+        for (int i = 0; i < length; i++)
+            result[i] = apply(operand[i]);
+    }
+    
+    
+    /**
+     * Get the Operator a step of a postfix program applies.
+     * 
+     * @param step The step.
+     * 
+     * @return The Operator of the step, including one that was reduced, or null if the step
+     *     doesn't apply an Operator.
+     */
+    static Operator of(Evaluatable step) {
+        if (step instanceof Operator)
+            return (Operator) step;
+        if (step instanceof ReducedOperator)
+            return ((ReducedOperator) step).getOperator();
+        return null;
+    }
+    
+    
+    /**
+     * Cuts an operand down to the working precision, so that an operator that combines it with
+     * an auxiliary value needs that value at the working precision only.
+     * 
+     * @param operand The operand.
+     * @param precision Working precision of the expression, in digits.
+     * 
+     * @return The operand, with at most the working precision.
+     */
+    private static Apfloat round(Apfloat operand, int precision) {
+        return operand.precision() > precision ? operand.precision(precision) : operand;
+    }
+    
+    
     /**
      * Get the associativity of the Operator.
      * 
@@ -190,11 +493,31 @@ public enum Operator implements Stackable, Evaluatable {
     public Associativity getAssociativity() {
         return associativity;
     }
+    
+    
+    @Override
+    public int getArity() {
+        return associativity.getArity();
+    }
+    
+    
+    @Override
+    public void evaluate(EvaluationContext context) throws ExpressionException {
+        if (getArity() == 2) {
+            Apfloat right = context.pop();
+            Apfloat left = context.pop();
+            context.push(apply(left, right));
+        } else
+            context.push(apply(context.pop(), context.getPrecision()));
+    }
 
     
     @Override
     public void shunt(Queue<Evaluatable> outputQueue, Deque<Stackable> operatorStack) {
-        while (operatorStack.size() != 0) {
+        
+        // An operator before its operand can't apply to anything already read, so it never
+        // takes the operators below it off the stack.
+        while (associativity != Associativity.UNARY_RIGHT && operatorStack.size() != 0) {
             Stackable prev = operatorStack.peek();
             if (prev == Parentheses.LEFT)
                 break;
@@ -219,7 +542,18 @@ public enum Operator implements Stackable, Evaluatable {
      * Associativity of an Operator.
      */
     enum Associativity {
-        BINARY_LEFT, BINARY_RIGHT, UNARY_LEFT, UNARY_RIGHT
+        BINARY_LEFT(2), BINARY_RIGHT(2), UNARY_LEFT(1), UNARY_RIGHT(1);
+        
+        // Number of operands.
+        private final int arity;
+        
+        private Associativity(int arity) {
+            this.arity = arity;
+        }
+        
+        int getArity() {
+            return arity;
+        }
     }
     
     
@@ -0,0 +1,117 @@
+package com.adamheins.expression;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Flight Recorder event for an application of an Operator in arbitrary precision that took
+ * long. It is disabled by default, because recording it makes evaluation step through the
+ * postfix program instead of running the generated class.
+ */
+@Name(OperatorEvent.NAME)
+@Label("Expression Operator")
+@Category("Expression Evaluator")
+@Description("Application of an operator in arbitrary precision")
+@StackTrace(false)
+@Enabled(false)
+@Threshold("1 ms")
+final class OperatorEvent extends jdk.jfr.Event {
+    
+    /** Name of the event. */
+    static final String NAME = "com.adamheins.expression.Operator";
+    
+    // Type of the event, to check if it is being recorded.
+    private static final EventType TYPE = EventType.getEventType(OperatorEvent.class);
+    
+    @Label("Operator")
+    String operator;
+    
+    @Label("Precision")
+    @Description("Internal precision of calculations, in digits")
+    int precision;
+    
+    @Label("First Operand Magnitude")
+    @Description("Number of digits before the decimal point of the first operand, or minus the "
+            + "number of zeros after it")
+    long firstOperandMagnitude;
+    
+    @Label("Second Operand Magnitude")
+    @Description("Number of digits before the decimal point of the second operand, or minus "
+            + "the number of zeros after it, or zero for unary operators")
+    long secondOperandMagnitude;
+    
+    
+    /**
+     * Checks if the event is being recorded.
+     * 
+     * @return True if the event is enabled in a running recording, false otherwise.
+     */
+    static boolean isRecording() {
+        return TYPE.isEnabled();
+    }
+    
+    
+    /**
+     * Evaluates a step of a postfix program, recording it if it applies an Operator and takes
+     * long enough.
+     * 
+     * @param step The step.
+     * @param context Context to evaluate the step in.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    static void evaluate(Evaluatable step, EvaluationContext context) 
+            throws ExpressionException {
+        Operator operator = Operator.of(step);
+        if (operator == null) {
+            step.evaluate(context);
+            return;
+        }
+        
+        Apfloat top = context.peek();
+        Apfloat below = step.getArity() == 2 ? context.peek(1) : null;
+        OperatorEvent event = new OperatorEvent();
+        event.begin();
+        step.evaluate(context);
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        
+        event.operator = operator.name();
+        event.precision = context.getPrecision();
+        if (step instanceof ReducedOperator) {
+            
+            // The literal operand is the index of a root, and the right operand otherwise.
+            long literal = magnitude(new Apfloat(((ReducedOperator) step).getLiteral()));
+            boolean root = operator == Operator.ROOT;
+            event.firstOperandMagnitude = root ? literal : magnitude(top);
+            event.secondOperandMagnitude = root ? magnitude(top) : literal;
+        } else if (below != null) {
+            event.firstOperandMagnitude = magnitude(below);
+            event.secondOperandMagnitude = magnitude(top);
+        } else
+            event.firstOperandMagnitude = magnitude(top);
+        event.commit();
+    }
+    
+    
+    /**
+     * Get the magnitude of a value.
+     * 
+     * @param value The value.
+     * 
+     * @return The scale of the value, or zero if the value is zero.
+     */
+    private static long magnitude(Apfloat value) {
+        return value.signum() == 0 ? 0 : value.scale();
+    }
+}
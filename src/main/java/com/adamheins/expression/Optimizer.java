@@ -0,0 +1,231 @@
+package com.adamheins.expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatRuntimeException;
+
+
+/**
+ * Rewrites postfix programs into equivalent programs that are cheaper to evaluate.
+ */
+final class Optimizer {
+    
+    // Budget of evaluating a constant subtree while compiling. Subtrees that would go over it
+    // are left for evaluation, where the caller can limit them.
+    private static final EvaluationBudget FOLDING_BUDGET = 
+            new EvaluationBudget(1_000_000, 100_000_000, null);
+    
+    private Optimizer() {}
+    
+    
+    /**
+     * Optimizes a postfix program.
+     * 
+     * @param program The postfix program.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return An equivalent program.
+     */
+    static Evaluatable[] optimize(Evaluatable[] program, int precision) {
+        return reduceStrength(foldConstants(program, precision));
+    }
+    
+    
+    /**
+     * Replaces every subtree made up only of numbers and constants with a single number holding
+     * its value. Subtrees that fail to evaluate are left as they are, so that the error is
+     * reported when the expression is evaluated, just as it would be without folding. So are
+     * subtrees too expensive to evaluate while compiling.
+     * 
+     * @param program The postfix program.
+     * @param precision Working precision of the program, in digits.
+     * 
+     * @return The folded program.
+     */
+    static Evaluatable[] foldConstants(Evaluatable[] program, int precision) {
+        List<Evaluatable> output = new ArrayList<>(program.length);
+        Deque<Operand> operands = new ArrayDeque<>();
+        
+        for (Evaluatable op : program) {
+            
+            // Values start a subtree of their own.
+            int arity = op.getArity();
+            if (arity == 0) {
+                operands.push(new Operand(output.size(), isConstant(op)));
+                output.add(op);
+                continue;
+            }
+            
+            // Leave malformed programs for evaluation to report.
+            if (operands.size() < arity) {
+                output.add(op);
+                operands.clear();
+                operands.push(new Operand(0, false));
+                continue;
+            }
+            
+            // The operator's subtree starts where its first operand's subtree does.
+            boolean constant = true;
+            int start = output.size();
+            for (int i = 0; i < arity; i++) {
+                Operand operand = operands.pop();
+                constant &= operand.constant;
+                start = operand.start;
+            }
+            output.add(op);
+            
+            if (constant) {
+                List<Evaluatable> subtree = output.subList(start, output.size());
+                Number folded = evaluate(subtree, precision);
+                if (folded != null) {
+                    subtree.clear();
+                    output.add(folded);
+                } else
+                    constant = false;
+            }
+            operands.push(new Operand(start, constant));
+        }
+        return output.toArray(new Evaluatable[0]);
+    }
+    
+    
+    /**
+     * Replaces POW and SCI_NOTATION with a literal exponent, and ROOT with a literal index, by
+     * reduced unary operations. Integer powers are then computed exactly by repeated
+     * multiplication, and square roots by <code>sqrt</code>.
+     * 
+     * @param program The postfix program, with constants already folded.
+     * 
+     * @return The reduced program.
+     */
+    static Evaluatable[] reduceStrength(Evaluatable[] program) {
+        List<Evaluatable> output = new ArrayList<>(program.length);
+        Deque<Integer> starts = new ArrayDeque<>();
+        
+        for (Evaluatable op : program) {
+            int arity = op.getArity();
+            if (starts.size() < arity) {
+                output.add(op);
+                starts.clear();
+                starts.push(0);
+                continue;
+            }
+            
+            // Find where the subtrees of the operands start.
+            int rightStart = output.size();
+            int leftStart = rightStart;
+            if (arity >= 1)
+                leftStart = rightStart = starts.pop();
+            if (arity == 2)
+                leftStart = starts.pop();
+            
+            ReducedOperator reduced = null;
+            if (op == Operator.POW || op == Operator.SCI_NOTATION) {
+                Number exponent = literalAt(output, rightStart, output.size());
+                if (exponent != null 
+                        && (op == Operator.SCI_NOTATION || Integers.isLong(exponent.getValue()))) {
+                    reduced = new ReducedOperator((Operator) op, exponent.getValue().longValue());
+                    output.remove(rightStart);
+                }
+            } else if (op == Operator.ROOT) {
+                Number index = literalAt(output, leftStart, rightStart);
+                if (index != null) {
+                    reduced = new ReducedOperator(Operator.ROOT, index.getValue().longValue());
+                    output.remove(leftStart);
+                }
+            }
+            output.add(reduced != null ? reduced : op);
+            starts.push(leftStart);
+        }
+        return output.toArray(new Evaluatable[0]);
+    }
+    
+    
+    /**
+     * Get the number that makes up a subtree on its own.
+     * 
+     * @param output The program being built.
+     * @param start Index at which the subtree starts.
+     * @param end Index after the end of the subtree.
+     * 
+     * @return The number, or null if the subtree is not a single number.
+     */
+    private static Number literalAt(List<Evaluatable> output, int start, int end) {
+        if (end - start != 1 || !(output.get(start) instanceof Number))
+            return null;
+        return (Number) output.get(start);
+    }
+    
+    
+    /**
+     * Checks if a token always evaluates to the same value.
+     * 
+     * @param op The token.
+     * 
+     * @return True if the token is a number or a constant, false otherwise.
+     */
+    private static boolean isConstant(Evaluatable op) {
+        return op instanceof Number || op instanceof Constant;
+    }
+    
+    
+    /**
+     * Evaluates a constant subtree.
+     * 
+     * @param subtree The subtree in postfix notation.
+     * @param precision Working precision of the subtree, in digits.
+     * 
+     * @return The value of the subtree as a number, or null if evaluation failed.
+     */
+    private static Number evaluate(List<Evaluatable> subtree, int precision) {
+        EvaluationContext context = new EvaluationContext();
+        context.setPrecision(precision);
+        
+        // Integer arithmetic is folded exactly.
+        Evaluatable[] program = subtree.toArray(new Evaluatable[0]);
+        IntegerProgram integerProgram = 
+                IntegerProgram.prepare(new DecodedProgram(program), program.length, precision);
+        BudgetMeter meter = new BudgetMeter(FOLDING_BUDGET, precision);
+        try {
+            if (integerProgram != null) {
+                Apfloat result = integerProgram.evaluate(context, new Apfloat[0], meter);
+                if (result != null)
+                    return new Number(result);
+            }
+            
+            boolean traced = OperatorEvent.isRecording();
+            for (Evaluatable op : subtree) {
+                meter.charge(op, context);
+                if (traced)
+                    OperatorEvent.evaluate(op, context);
+                else
+                    op.evaluate(context);
+            }
+        } catch (ExpressionException | ArithmeticException | ApfloatRuntimeException e) {
+            return null;
+        }
+        return new Number(context.pop());
+    }
+    
+    
+    /**
+     * A subtree of the output program that has been fully built.
+     */
+    private static final class Operand {
+        
+        // Index in the output program at which the subtree starts.
+        final int start;
+        
+        // Whether the subtree is made up only of numbers and constants.
+        final boolean constant;
+        
+        Operand(int start, boolean constant) {
+            this.start = start;
+            this.constant = constant;
+        }
+    }
+}
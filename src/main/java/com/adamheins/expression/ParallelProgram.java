@@ -0,0 +1,248 @@
+package com.adamheins.expression;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatRuntimeException;
+
+
+/**
+ * A postfix program rebuilt into a tree, so that independent operands of an operator can be
+ * evaluated at the same time on a fork/join pool. Only subtrees whose estimated cost is above a
+ * threshold are evaluated as tasks of their own. Cheaper subtrees are run as slices of the
+ * postfix program on whichever thread reaches them.
+ */
+final class ParallelProgram {
+    
+    /** Estimated cost of a subtree above which it is worth evaluating as a task of its own. */
+    static final long PARALLEL_THRESHOLD = 100_000;
+    
+    // The postfix program.
+    private final Evaluatable[] program;
+    
+    // Root of the tree.
+    private final Node root;
+    
+    // Maximum number of values on the stack while the program runs.
+    private final int maxStackDepth;
+    
+    // Working precision, in digits.
+    private final int precision;
+    
+    
+    /**
+     * Create a new ParallelProgram.
+     * 
+     * @param program The postfix program.
+     * @param root Root of the tree built from the program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision, in digits.
+     */
+    private ParallelProgram(Evaluatable[] program, Node root, int maxStackDepth, int precision) {
+        this.program = program;
+        this.root = root;
+        this.maxStackDepth = maxStackDepth;
+        this.precision = precision;
+    }
+    
+    
+    /**
+     * Builds the tree of a postfix program.
+     * 
+     * @param program The postfix program.
+     * @param maxStackDepth Maximum number of values on the stack while the program runs.
+     * @param precision Working precision, in digits.
+     * 
+     * @return The prepared program, or null if no two subtrees are expensive enough to be worth
+     *     evaluating at the same time, or the program is malformed.
+     */
+    static ParallelProgram prepare(Evaluatable[] program, int maxStackDepth, int precision) {
+        Deque<Node> nodes = new ArrayDeque<>();
+        boolean parallel = false;
+        for (int i = 0; i < program.length; i++) {
+            Evaluatable op = program[i];
+            int arity = op.getArity();
+            if (nodes.size() < arity)
+                return null;
+            
+            Node[] children = new Node[arity];
+            long cost = CostEstimator.estimate(op, precision);
+            int expensive = 0;
+            for (int j = arity - 1; j >= 0; j--) {
+                children[j] = nodes.pop();
+                cost = CostEstimator.add(cost, children[j].cost);
+                if (children[j].cost >= PARALLEL_THRESHOLD)
+                    expensive++;
+            }
+            parallel |= expensive > 1;
+            int start = arity > 0 ? children[0].start : i;
+            nodes.push(new Node(children, start, i + 1, cost));
+        }
+        if (nodes.size() != 1 || !parallel)
+            return null;
+        return new ParallelProgram(program, nodes.pop(), maxStackDepth, precision);
+    }
+    
+    
+    /**
+     * Runs the program.
+     * 
+     * @param pool Pool to evaluate expensive subtrees on.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The value of the program.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    Apfloat evaluate(ForkJoinPool pool, Apfloat[] values) throws ExpressionException {
+        try {
+            return pool.invoke(new NodeTask(root, values));
+        } catch (RuntimeException e) {
+            
+            // Tasks can only throw unchecked exceptions, so math errors come back wrapped.
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ExpressionException)
+                    throw (ExpressionException) cause;
+            }
+            throw e;
+        }
+    }
+    
+    
+    /**
+     * Runs the slice of the program that makes up a subtree, on top of the given operand values.
+     * 
+     * @param start Index of the first step of the slice.
+     * @param end Index after the last step of the slice.
+     * @param operands Values to push before running the slice.
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The value of the slice.
+     * 
+     * @throws ExpressionException Throws an exception if a math error is encountered.
+     */
+    private Apfloat run(int start, int end, Apfloat[] operands, Apfloat[] values)
+            throws ExpressionException {
+        EvaluationContext context = EvaluationContext.forCurrentThread();
+        int base = context.size();
+        context.reserve(base + Math.max(maxStackDepth, operands.length + 1));
+        Apfloat[] previousValues = context.bind(values);
+        int previousPrecision = context.setPrecision(precision);
+        try {
+            for (Apfloat operand : operands)
+                context.push(operand);
+            for (int i = start; i < end; i++)
+                program[i].evaluate(context);
+            return context.pop();
+        } catch (ArithmeticException | ApfloatRuntimeException e) {
+            throw new ExpressionException(e.getMessage());
+        } finally {
+            context.bind(previousValues);
+            context.setPrecision(previousPrecision);
+            context.truncate(base);
+        }
+    }
+    
+    
+    /**
+     * A node of the tree: a step of the program, which ends the slice of its subtree, and the
+     * subtrees of its operands.
+     */
+    private static final class Node {
+        
+        // Operands of the step.
+        final Node[] children;
+        
+        // Index of the first step of the subtree in the program.
+        final int start;
+        
+        // Index after the last step of the subtree, which is this node's own step.
+        final int end;
+        
+        // Estimated cost of the whole subtree.
+        final long cost;
+        
+        
+        Node(Node[] children, int start, int end, long cost) {
+            this.children = children;
+            this.start = start;
+            this.end = end;
+            this.cost = cost;
+        }
+    }
+    
+    
+    /**
+     * Evaluates a subtree, forking off its expensive operands.
+     */
+    private final class NodeTask extends RecursiveTask<Apfloat> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        // The subtree.
+        private final transient Node node;
+        
+        // Values of the variables, in slot order.
+        private final transient Apfloat[] values;
+        
+        
+        NodeTask(Node node, Apfloat[] values) {
+            this.node = node;
+            this.values = values;
+        }
+        
+        
+        @Override
+        protected Apfloat compute() {
+            try {
+                if (node.cost < PARALLEL_THRESHOLD || node.children.length == 0)
+                    return run(node.start, node.end, new Apfloat[0], values);
+                
+                // Fork every expensive operand but the last, which this thread evaluates.
+                Node[] children = node.children;
+                Apfloat[] operands = new Apfloat[children.length];
+                NodeTask[] forked = new NodeTask[children.length];
+                int last = -1;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i].cost >= PARALLEL_THRESHOLD)
+                        last = i;
+                }
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i].cost >= PARALLEL_THRESHOLD && i != last)
+                        forked[i] = (NodeTask) new NodeTask(children[i], values).fork();
+                }
+                for (int i = 0; i < children.length; i++) {
+                    if (i == last)
+                        operands[i] = new NodeTask(children[i], values).compute();
+                    else if (forked[i] == null)
+                        operands[i] = run(children[i].start, children[i].end, new Apfloat[0],
+                                values);
+                }
+                for (int i = 0; i < children.length; i++) {
+                    if (forked[i] != null)
+                        operands[i] = forked[i].join();
+                }
+                return run(node.end - 1, node.end, operands, values);
+            } catch (ExpressionException e) {
+                throw new EvaluationFailure(e);
+            }
+        }
+    }
+    
+    
+    /**
+     * Carries a math error out of a task.
+     */
+    private static final class EvaluationFailure extends RuntimeException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        
+        EvaluationFailure(ExpressionException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.adamheins.expression;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+
+/**
+ * A binary Operator with one literal operand, reduced to a cheaper unary operation. The literal
+ * is converted to a long once, when the expression is compiled.
+ */
+final class ReducedOperator implements Evaluatable {
+    
+    // The Operator that was reduced.
+    private final Operator operator;
+    
+    // The literal operand: the exponent of POW and SCI_NOTATION, or the index of ROOT.
+    private final long literal;
+    
+    
+    /**
+     * Create a new ReducedOperator.
+     * 
+     * @param operator The Operator to reduce. Must be POW, SCI_NOTATION or ROOT.
+     * @param literal The literal operand.
+     */
+    ReducedOperator(Operator operator, long literal) {
+        this.operator = operator;
+        this.literal = literal;
+    }
+    
+    
+    /**
+     * Get the Operator that was reduced.
+     * 
+     * @return The reduced Operator.
+     */
+    Operator getOperator() {
+        return operator;
+    }
+    
+    
+    /**
+     * Get the literal operand of the reduced Operator.
+     * 
+     * @return The literal operand.
+     */
+    long getLiteral() {
+        return literal;
+    }
+    
+    
+    /**
+     * Applies the reduced operation to the remaining operand.
+     * 
+     * @param operand The operand that is not a literal.
+     * 
+     * @return The result of the operation.
+     */
+    Apfloat apply(Apfloat operand) {
+        switch (operator) {
+        case POW:
+            return ApfloatMath.pow(operand, literal);
+        case SCI_NOTATION:
+            return ApfloatMath.scale(operand, literal);
+        case ROOT:
+            if (literal == 2)
+                return ApfloatMath.sqrt(operand);
+            return ApfloatMath.root(operand, literal);
+        default:
+            throw new IllegalStateException(operator.name() + " cannot be reduced.");
+        }
+    }
+    
+    
+    /**
+     * Applies the reduced operation to the remaining operand in double precision.
+     * 
+     * @param operand The operand that is not a literal.
+     * 
+     * @return The result of the operation, or NaN if it can't be computed in double precision.
+     */
+    double apply(double operand) {
+        switch (operator) {
+        case POW:
+            return Math.pow(operand, literal);
+        case SCI_NOTATION:
+            return Operator.SCI_NOTATION.apply(operand, literal);
+        case ROOT:
+            return Operator.ROOT.apply(literal, operand);
+        default:
+            throw new IllegalStateException(operator.name() + " cannot be reduced.");
+        }
+    }
+    
+    
+    @Override
+    public void evaluate(EvaluationContext context) {
+        context.push(apply(context.pop()));
+    }
+    
+    
+    @Override
+    public int getArity() {
+        return 1;
+    }
+    
+    
+    @Override
+    public String toString() {
+        if (operator == Operator.ROOT)
+            return literal + operator.toString();
+        return operator.toString() + literal;
+    }
+}
@@ -0,0 +1,62 @@
+package com.adamheins.expression;
+
+
+/**
+ * A prefix tree of token symbols. Finds the longest symbol starting at a given index of an
+ * expression in a single pass, no matter how many symbols are known.
+ */
+final class SymbolTrie {
+    
+    // Symbols are made up of ASCII characters only.
+    private static final int ALPHABET_SIZE = 128;
+    
+    // Child nodes, indexed by the next character of the symbol.
+    private final SymbolTrie[] children = new SymbolTrie[ALPHABET_SIZE];
+    
+    // Token whose symbol ends at this node, or null if no symbol ends here.
+    private Shuntable token;
+    
+    
+    /**
+     * Adds a token to the trie under its symbol. If a token has already been added under the
+     * same symbol, the first one is kept.
+     * 
+     * @param token The token to add.
+     */
+    void add(Shuntable token) {
+        String symbol = token.toString();
+        SymbolTrie node = this;
+        for (int i = 0; i < symbol.length(); i++) {
+            char ch = symbol.charAt(i);
+            if (ch >= ALPHABET_SIZE)
+                throw new IllegalArgumentException("Symbol is not ASCII: " + symbol);
+            if (node.children[ch] == null)
+                node.children[ch] = new SymbolTrie();
+            node = node.children[ch];
+        }
+        if (node.token == null)
+            node.token = token;
+    }
+    
+    
+    /**
+     * Finds the token with the longest symbol that starts at the specified index.
+     * 
+     * @param expression The string of math being parsed.
+     * @param index Index at which the symbol starts.
+     * 
+     * @return The matching token, or null if no symbol starts at the index.
+     */
+    Shuntable longestMatch(CharSequence expression, int index) {
+        Shuntable match = null;
+        SymbolTrie node = this;
+        for (int i = index; i < expression.length(); i++) {
+            char ch = expression.charAt(i);
+            if (ch >= ALPHABET_SIZE || (node = node.children[ch]) == null)
+                break;
+            if (node.token != null)
+                match = node.token;
+        }
+        return match;
+    }
+}
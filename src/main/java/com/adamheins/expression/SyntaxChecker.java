@@ -0,0 +1,119 @@
+package com.adamheins.expression;
+
+
+/**
+ * Checks that expressions are well formed before any of them is evaluated, so that malformed
+ * input is reported as a syntax error at the position where it goes wrong rather than failing
+ * somewhere inside evaluation.
+ * <p>
+ * Tokens are checked one at a time as they are read. Each token is either expected to start an
+ * operand, as values, left parentheses and operators before their operand do, or to follow a
+ * complete operand, as binary operators, operators after their operand and right parentheses
+ * do. Postfix programs built from checked tokens are well formed, which is asserted by counting
+ * the values on the stack.
+ */
+final class SyntaxChecker {
+    
+    // Whether the next token has to start an operand.
+    private boolean expectOperand = true;
+    
+    // Number of left parentheses that haven't been closed.
+    private int openParentheses;
+    
+    
+    /**
+     * Checks the next token of an expression.
+     * 
+     * @param token The token.
+     * @param index Index of the first character of the token in the expression.
+     * 
+     * @throws ExpressionException Throws an exception if the token can't follow the tokens
+     *     before it.
+     */
+    void check(Shuntable token, int index) throws ExpressionException {
+        if (token == Parentheses.LEFT) {
+            if (!expectOperand)
+                throw syntaxError(index);
+            openParentheses++;
+        } else if (token == Parentheses.RIGHT) {
+            if (expectOperand || openParentheses == 0)
+                throw syntaxError(index);
+            openParentheses--;
+        } else if (token instanceof Operator) {
+            switch (((Operator) token).getAssociativity()) {
+            case UNARY_RIGHT:
+                if (!expectOperand)
+                    throw syntaxError(index);
+                break;
+            case UNARY_LEFT:
+                if (expectOperand)
+                    throw syntaxError(index);
+                break;
+            default:
+                if (expectOperand)
+                    throw syntaxError(index);
+                expectOperand = true;
+                break;
+            }
+        } else {
+            
+            // Numbers, constants and variables.
+            if (!expectOperand)
+                throw syntaxError(index);
+            expectOperand = false;
+        }
+    }
+    
+    
+    /**
+     * Checks that the expression is complete.
+     * 
+     * @param index Index of the end of the expression.
+     * 
+     * @throws ExpressionException Throws an exception if an operand or a right parenthesis is
+     *     missing at the end of the expression.
+     */
+    void finish(int index) throws ExpressionException {
+        if (expectOperand || openParentheses != 0)
+            throw syntaxError(index);
+    }
+    
+    
+    /**
+     * Asserts that every step of a postfix program has its operands, and that the program leaves
+     * exactly one value, and computes how deep the value stack gets. Programs shunted from
+     * checked tokens, and optimized from those, always pass, so a failure is a bug in shunting or
+     * optimizing rather than in the expression.
+     * 
+     * @param program The postfix program.
+     * 
+     * @return The maximum number of values on the stack while the program runs.
+     * 
+     * @throws IllegalStateException Throws an exception if the program is malformed.
+     */
+    static int checkProgram(Evaluatable[] program) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < program.length; i++) {
+            depth -= program[i].getArity();
+            if (depth < 0)
+                throw new IllegalStateException("Malformed program at step [" + i + "].");
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+        if (program.length > 0 && depth != 1)
+            throw new IllegalStateException("Malformed program at step [" + program.length + "].");
+        return maxDepth;
+    }
+    
+    
+    /**
+     * Creates the exception for a syntax error.
+     * 
+     * @param index Index in the expression at which the error is.
+     * 
+     * @return The exception.
+     */
+    private static ExpressionException syntaxError(int index) {
+        return new ExpressionException("Syntax error at index [" + index + "].");
+    }
+}
@@ -0,0 +1,229 @@
+package com.adamheins.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * Reads the tokens of a string of math one at a time, so that they can be shunted as they are
+ * read instead of being collected into a list first. Only the previous token is remembered,
+ * which is all that is needed to tell negation from subtraction and to insert implicit
+ * multiplication signs.
+ */
+final class TokenCursor {
+    
+    // ASCII integer literals with at most this many digits are parsed in place, and their text is
+    // only copied the first time they are read.
+    private static final int MAX_FAST_DIGITS = 18;
+    
+    // The string of math.
+    private final CharSequence expression;
+    
+    // Names of the variables, or null if there are none.
+    private final SymbolTrie variableSymbols;
+    
+    // Precision of the values of literals, in digits.
+    private final int precision;
+    
+    // Integer literals read so far, without leading zeros, so that repeated literals share one
+    // token.
+    private final Map<Long, Number> integers = new HashMap<>();
+    
+    // Other literals read so far, keyed by their text.
+    private final Map<String, Number> decimals = new HashMap<>();
+    
+    // Index of the next character to read.
+    private int index;
+    
+    // Index of the first character of the last token returned.
+    private int tokenIndex;
+    
+    // Number of tokens returned.
+    private int tokenCount;
+    
+    // The last token returned, or null if there hasn't been one.
+    private Shuntable previous;
+    
+    // Token held back while an implicit multiplication sign is returned before it.
+    private Shuntable pending;
+    
+    
+    /**
+     * Create a new TokenCursor at the start of an expression.
+     * 
+     * @param expression The string of math.
+     * @param variableSymbols Names of the variables, or null if there are none.
+     * @param precision Precision of the values of literals, in digits.
+     */
+    TokenCursor(CharSequence expression, SymbolTrie variableSymbols, int precision) {
+        this.expression = expression;
+        this.variableSymbols = variableSymbols;
+        this.precision = precision;
+    }
+    
+    
+    /**
+     * Reads the next token.
+     * 
+     * @return The next token, or null if the end of the expression has been reached.
+     * 
+     * @throws ExpressionException Throws an exception if an unrecognized token is encountered.
+     */
+    Shuntable next() throws ExpressionException {
+        if (pending != null) {
+            previous = pending;
+            pending = null;
+            tokenCount++;
+            return previous;
+        }
+        
+        // Ignore whitespace.
+        while (index < expression.length() && Character.isWhitespace(expression.charAt(index)))
+            index++;
+        if (index == expression.length())
+            return null;
+        
+        tokenIndex = index;
+        Shuntable token = readToken();
+        
+        // Special case for negatives, as they can be either unary negatives or binary
+        // subtraction signs. Subtraction is the default.
+        if (token == Operator.MINUS && (previous == null || previous == Parentheses.LEFT
+                || (previous instanceof Operator && ((Operator) previous).getAssociativity() 
+                        != Operator.Associativity.UNARY_LEFT)))
+            token = Operator.NEGATE;
+        
+        // Check for implicit multiplication sign. If it's there, return an explicit one first.
+        if (token instanceof Operator
+                && ((Operator) token).getAssociativity() == Operator.Associativity.UNARY_RIGHT
+                && (previous instanceof Number
+                        || previous instanceof Constant
+                        || previous instanceof Variable)) {
+            pending = token;
+            token = Operator.MULTIPLY;
+        }
+        
+        previous = token;
+        tokenCount++;
+        return token;
+    }
+    
+    
+    /**
+     * Get the index of the token last returned by {@link #next()}. An implicit multiplication
+     * sign has the index of the token after it.
+     * 
+     * @return The index of the first character of the token.
+     */
+    int getTokenIndex() {
+        return tokenIndex;
+    }
+    
+    
+    /**
+     * Get the index of the next character to read, which is the length of the expression once
+     * every token has been read.
+     * 
+     * @return The index.
+     */
+    int getIndex() {
+        return index;
+    }
+    
+    
+    /**
+     * Get the number of tokens returned by {@link #next()} so far, including implicit
+     * multiplication signs.
+     * 
+     * @return The number of tokens.
+     */
+    int getTokenCount() {
+        return tokenCount;
+    }
+    
+    
+    /**
+     * Reads the token starting at the current index and moves past it.
+     * 
+     * @return The token.
+     * 
+     * @throws ExpressionException Throws an exception if an unrecognized token is encountered.
+     */
+    private Shuntable readToken() throws ExpressionException {
+        
+        // Check for numbers.
+        if (Tokenizer.isNumber(expression.charAt(index))) {
+            int start = index;
+            boolean integer = true;
+            while (index < expression.length() && Tokenizer.isNumber(expression.charAt(index))) {
+                char ch = expression.charAt(index);
+                if (ch < '0' || ch > '9')
+                    integer = false;
+                index++;
+            }
+            
+            // A leading zero would be lost from the text of an integer shared with its value.
+            boolean leadingZero = expression.charAt(start) == '0' && index - start > 1;
+            if (integer && !leadingZero && index - start <= MAX_FAST_DIGITS)
+                return integer(start, index);
+            return decimal(start, index);
+        }
+        
+        // Check for parentheses, constants, operators and variables, preferring the longest
+        // symbol.
+        Shuntable token = Tokenizer.longestMatch(expression, index, variableSymbols);
+        if (token == null)
+            throw new ExpressionException("Syntax error at index [" + index + "].");
+        index += token.toString().length();
+        return token;
+    }
+    
+    
+    /**
+     * Get the token of an integer literal, reading its digits in place.
+     * 
+     * @param start Index of the first digit, which is not a leading zero.
+     * @param end Index after the last digit.
+     * 
+     * @return The number.
+     */
+    private Number integer(int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++)
+            value = value * 10 + (expression.charAt(i) - '0');
+        Number number = integers.get(value);
+        if (number == null) {
+            String literal = expression.subSequence(start, end).toString();
+            number = new Number(literal, new Apfloat(value, precision));
+            integers.put(value, number);
+        }
+        return number;
+    }
+    
+    
+    /**
+     * Get the token of a literal that has to be parsed from its text.
+     * 
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * 
+     * @return The number.
+     * 
+     * @throws ExpressionException Throws an exception if the literal is malformed.
+     */
+    private Number decimal(int start, int end) throws ExpressionException {
+        String literal = expression.subSequence(start, end).toString();
+        Number number = decimals.get(literal);
+        if (number == null) {
+            try {
+                number = new Number(literal, precision);
+            } catch (NumberFormatException e) {
+                throw new ExpressionException("Syntax error at index [" + start + "].");
+            }
+            decimals.put(literal, number);
+        }
+        return number;
+    }
+}
@@ -1,13 +1,28 @@
 package com.adamheins.expression;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A tool for tokenizing a string of math.
  */
 public class Tokenizer {
-
+    
+    // Symbols of all parentheses, constants and operators.
+    private static final SymbolTrie SYMBOLS = new SymbolTrie();
+    
+    static {
+        for (Parentheses paren : Parentheses.values())
+            SYMBOLS.add(paren);
+        for (Constant constant : Constant.values())
+            SYMBOLS.add(constant);
+        for (Operator operator : Operator.values())
+            SYMBOLS.add(operator);
+    }
+    
     
     /**
      * Parses the mathematical string into a list of math tokens.
@@ -19,101 +34,98 @@ public class Tokenizer {
      * @throws ExpressionException Throws an expression if there is a syntax error in the 
      *     expression string.
      */
-    public static List<Shuntable> parseExpression(String expressionString) 
+    public static List<Shuntable> parseExpression(CharSequence expressionString) 
+            throws ExpressionException {
+        return parseExpression(expressionString, Collections.<Variable>emptyList());
+    }
+    
+    
+    /**
+     * Parses the mathematical string into a list of math tokens, recognizing the names of the
+     * specified variables.
+     * 
+     * @param expressionString The string of math to be parsed.
+     * @param variables Variables that may appear in the expression.
+     * 
+     * @return The list of tokens.
+     * 
+     * @throws ExpressionException Throws an expression if there is a syntax error in the 
+     *     expression string.
+     */
+    static List<Shuntable> parseExpression(CharSequence expressionString, List<Variable> variables)
             throws ExpressionException {
-        
         List<Shuntable> tokens = new ArrayList<>();
-
-        int i = 0;
-        while (i < expressionString.length()) {
-
-            char ch = expressionString.charAt(i);
-
-            // Ignore whitespace.
-            if (Character.isWhitespace(ch)) {
-                i++;
-                continue;
-            }
-
-            // Parse the token.
-            Shuntable token = parseToken(expressionString, i);
-            
-            // Special case for negatives, as they can be either unary negatives or binary
-            // subtraction signs. Subtraction is the default.
-            if (token == Operator.MINUS) {
-                if (tokens.size() == 0)
-                    token = Operator.NEGATE;
-                else {
-                    Shuntable last = tokens.get(tokens.size() - 1);
-                    if (last instanceof Operator || last == Parentheses.LEFT)
-                        token = Operator.NEGATE;
-                }
-            }
-            
-            // Check for implicit multiplication sign. If it's there, add an explicit one.
-            if (token instanceof Operator 
-                    && ((Operator) token).getAssociativity() == Operator.Associativity.UNARY_RIGHT
-                    && (tokens.size() > 0)
-                    && (tokens.get(tokens.size() - 1) instanceof Number 
-                            || tokens.get(tokens.size() - 1) instanceof Constant))
-                tokens.add(Operator.MULTIPLY);
-            
-            // Add token to the queue.
+        TokenCursor cursor = cursor(expressionString, variables, ExpressionEvaluator.PRECISION);
+        Shuntable token;
+        while ((token = cursor.next()) != null)
             tokens.add(token);
-            
-            // Increment index by length of token.
-            i += token.toString().length();
-        }
         return tokens;
     }
+    
+    
+    /**
+     * Creates a cursor that reads the tokens of the mathematical string one at a time, 
+     * recognizing the names of the specified variables.
+     * 
+     * @param expressionString The string of math to be parsed.
+     * @param variables Variables that may appear in the expression.
+     * @param precision Precision of the values of literals, in digits.
+     * 
+     * @return The cursor, positioned at the start of the string.
+     */
+    static TokenCursor cursor(CharSequence expressionString, List<Variable> variables, 
+            int precision) {
+        SymbolTrie variableSymbols = null;
+        if (!variables.isEmpty())
+            variableSymbols = buildVariableSymbols(variables);
+        return new TokenCursor(expressionString, variableSymbols, precision);
+    }
 
     
     /**
-     * Parses the next token in the String representing the function.
+     * Finds the longest parenthesis, constant, operator or variable starting at an index of the
+     * string.
      * 
      * @param expressionString The string of math to be parsed.
      * @param i The current index in the string.
+     * @param variableSymbols Names of the variables, or null if there are none.
      * 
-     * @return The next token.
+     * @return The longest matching token, or null if there is none.
+     */
+    static Shuntable longestMatch(CharSequence expressionString, int i, 
+            SymbolTrie variableSymbols) {
+        Shuntable token = SYMBOLS.longestMatch(expressionString, i);
+        if (variableSymbols != null) {
+            Shuntable variable = variableSymbols.longestMatch(expressionString, i);
+            if (variable != null 
+                    && (token == null || variable.toString().length() > token.toString().length()))
+                token = variable;
+        }
+        return token;
+    }
+    
+    
+    /**
+     * Builds the trie of variable names, making sure that no name is used twice or hides a
+     * built-in symbol.
      * 
-     * @throws ExpressionException Throws an exception if an unrecognized token is encountered.
+     * @param variables The variables.
      * 
+     * @return The trie of variable names.
      */
-    private static Shuntable parseToken(String expressionString, int i) throws ExpressionException {
-        
-        char ch = expressionString.charAt(i);
-
-        
-        // Check for numbers.
-        if (isNumber(ch)) {
-            int start = i;
-            i++;
-            while (i < expressionString.length() && isNumber(expressionString.charAt(i)))
-                i++;
-            return new Number(expressionString.substring(start, i));
-        }
-
-        // Check for parentheses.
-        for (Shuntable paren : Parentheses.values()) {
-            if (Character.toString(ch).equals(paren.toString()))
-                return paren;
-        }
-
-        // Check for a constant.
-        for (Shuntable constant : Constant.values()) {
-            if (isSubstringAtIndex(expressionString, constant.toString(), i))
-                return constant;
+    private static SymbolTrie buildVariableSymbols(List<Variable> variables) {
+        SymbolTrie variableSymbols = new SymbolTrie();
+        Set<String> names = new HashSet<>();
+        for (Variable variable : variables) {
+            String name = variable.toString();
+            Shuntable builtIn = SYMBOLS.longestMatch(name, 0);
+            if (builtIn != null && builtIn.toString().length() == name.length())
+                throw new IllegalArgumentException("Variable name is a built-in symbol: " + name);
+            if (!names.add(name))
+                throw new IllegalArgumentException("Duplicate variable name: " + name);
+            variableSymbols.add(variable);
         }
-
-        // Finally, check for an operator.
-        for (Shuntable operator : Operator.values()) {
-            if (isSubstringAtIndex(expressionString, operator.toString(), i)) {
-                return operator;
-            }
-        }
-
-        // Throw an exception if this character matches nothing.
-        throw new ExpressionException("Syntax error at index [" + i + "].");
+        return variableSymbols;
     }
     
     
@@ -145,7 +157,7 @@ public class Tokenizer {
      * 
      * @return True if the character is a number or radix, false otherwise.
      */
-    private static boolean isNumber(char ch) {
+    static boolean isNumber(char ch) {
         return (Character.isDigit(ch) || ch == '.');
     }
 }
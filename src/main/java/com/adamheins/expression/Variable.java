@@ -0,0 +1,120 @@
+package com.adamheins.expression;
+
+import java.util.Deque;
+import java.util.Queue;
+
+import org.apfloat.Apfloat;
+
+
+/**
+ * A named variable token. Its value is bound when the expression is evaluated, so one compiled
+ * expression can be evaluated over many inputs.
+ */
+public final class Variable implements Shuntable, Evaluatable {
+    
+    // Name of the variable.
+    private final String name;
+    
+    // Index of the variable's value among the bound values.
+    private final int slot;
+    
+    // Precision that bound values are brought to.
+    private final int precision;
+    
+    
+    /**
+     * Create a new Variable.
+     * 
+     * @param name The name of the variable. Must start with a letter or underscore and contain
+     *     only ASCII letters, digits and underscores.
+     * @param slot Index of the variable's value among the bound values.
+     * @param precision Precision that bound values are brought to, in digits.
+     */
+    Variable(String name, int slot, int precision) {
+        if (!isValidName(name))
+            throw new IllegalArgumentException("Invalid variable name: " + name);
+        this.name = name;
+        this.slot = slot;
+        this.precision = precision;
+    }
+    
+    
+    /**
+     * Checks if a string can be used as the name of a variable.
+     * 
+     * @param name The name to check.
+     * 
+     * @return True if the name is valid, false otherwise.
+     */
+    private static boolean isValidName(String name) {
+        if (name.isEmpty() || Character.isDigit(name.charAt(0)))
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (!((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') 
+                    || (ch >= '0' && ch <= '9') || ch == '_'))
+                return false;
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Get the index of the variable's value among the bound values.
+     * 
+     * @return The slot of the variable.
+     */
+    int getSlot() {
+        return slot;
+    }
+    
+    
+    /**
+     * Get the value of the variable.
+     * 
+     * @param values Values of the variables, in slot order.
+     * 
+     * @return The value of the variable, at the working precision.
+     * 
+     * @throws ExpressionException If the variable has no value.
+     */
+    Apfloat getValue(Apfloat[] values) throws ExpressionException {
+        return checkValue(slot < values.length ? values[slot] : null);
+    }
+    
+    
+    /**
+     * Checks that a value has been bound to the variable, and brings it to the working precision.
+     * 
+     * @param value The value bound to the variable, or null if there is none.
+     * 
+     * @return The value, at the working precision.
+     * 
+     * @throws ExpressionException If the variable has no value.
+     */
+    private Apfloat checkValue(Apfloat value) throws ExpressionException {
+        if (value == null)
+            throw new ExpressionException("Variable [" + name + "] is not bound.");
+        if (value.precision() != precision)
+            value = value.precision(precision);
+        return value;
+    }
+    
+    
+    @Override
+    public void evaluate(EvaluationContext context) throws ExpressionException {
+        context.push(checkValue(context.getVariable(slot)));
+    }
+    
+    
+    @Override
+    public void shunt(Queue<Evaluatable> outputQueue, Deque<Stackable> operatorStack) {
+        outputQueue.add(this);
+    }
+    
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,114 @@
+package com.adamheins.expression;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the <code>ExpressionCache</code>.
+ * 
+ * @author Adam Heins
+ * 
+ */
+public class ExpressionCacheTests {
+
+    @Test
+    public void testHitAfterMiss() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(10);
+        CompiledExpression first = cache.get("1+2");
+        assertSame(first, cache.get("1+2"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testWhitespaceIsNormalized() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(10);
+        assertSame(cache.get("1+2"), cache.get(" 1 +\t2 "));
+        assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    public void testWhitespaceBetweenWordsIsKept() {
+        assertEquals("2 3", ExpressionCache.normalize("2  3"));
+        assertEquals("sin h1", ExpressionCache.normalize("sin h1"));
+        assertEquals("sinh(1)", ExpressionCache.normalize("sinh ( 1 )"));
+    }
+
+
+    @Test
+    public void testEviction() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(1);
+        for (int i = 0; i < 100; i++)
+            cache.get(Integer.toString(i));
+        assertEquals(1, cache.size());
+        assertEquals(99, cache.getEvictionCount());
+    }
+
+
+    @Test
+    public void testSizeNeverExceedsCapacity() throws ExpressionException {
+        for (int capacity = 1; capacity <= 40; capacity++) {
+            ExpressionCache cache = new ExpressionCache(capacity);
+            for (int i = 0; i < 1000; i++)
+                cache.get(Integer.toString(i));
+            assertTrue(cache.size() <= capacity);
+            assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        }
+    }
+
+
+    @Test
+    public void testWhitespaceOnlyDoesNotDependOnCacheState() {
+        ExpressionCache cache = new ExpressionCache(10);
+        for (String expression : new String[] {"  ", "\t", "  "}) {
+            try {
+                cache.get(expression);
+                fail(expression);
+            } catch (ExpressionException e) {
+                assertEquals("Syntax error at index [" + expression.length() + "].", 
+                        e.getMessage());
+            }
+        }
+        assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void testErrorsAreAtTheirPositionInTheGivenText() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(10);
+        try {
+            cache.get(" 2 + ) ");
+            fail();
+        } catch (ExpressionException e) {
+            assertEquals("Syntax error at index [5].", e.getMessage());
+        }
+        assertEquals("0", cache.get("").evaluate());
+    }
+
+
+    @Test
+    public void testEvaluatorUsesCache() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(10);
+        ExpressionEvaluator.setCache(cache);
+        try {
+            assertEquals("4", ExpressionEvaluator.evaluate("2+2"));
+            assertEquals("4", ExpressionEvaluator.evaluate("2 + 2"));
+        } finally {
+            ExpressionEvaluator.setCache(null);
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testPrecisionsAreCachedSeparately() throws ExpressionException {
+        ExpressionCache cache = new ExpressionCache(100);
+        CompiledExpression low = cache.get("1/3", 5);
+        assertNotSame(low, cache.get("1/3"));
+        assertSame(low, cache.get("1/3", 5));
+        assertEquals(5, low.getPrecision());
+    }
+}
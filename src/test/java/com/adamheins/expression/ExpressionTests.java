@@ -1,6 +1,24 @@
 package com.adamheins.expression;
 
 import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
 import org.junit.Test;
 
 import com.adamheins.expression.ExpressionException;
@@ -351,4 +369,591 @@ public class ExpressionTests {
     public void testImplicitMultiplication2() throws ExpressionException {
         assertEquals("6", ExpressionEvaluator.evaluate("2log1000"));
     }
+    
+    
+    @Test
+    public void testCompiledExpressionReuse() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("(5+4)*2");
+        assertEquals("18", expression.evaluate());
+        assertEquals("18", expression.evaluate());
+    }
+    
+    
+    @Test
+    public void testCompiledEmptyExpression() throws ExpressionException {
+        assertEquals("0", ExpressionEvaluator.compile("").evaluate());
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testUnrecognizedSymbol() throws ExpressionException {
+        ExpressionEvaluator.evaluate("3$2");
+    }
+    
+    
+    @Test
+    public void testLongestSymbolIsMatched() throws ExpressionException {
+        assertEquals("3", ExpressionEvaluator.evaluate("2rt9"));
+    }
+    
+    
+    @Test
+    public void testMaxStackDepth() throws ExpressionException {
+        assertEquals(3, ExpressionEvaluator.compile("x+2*y", "x", "y").getMaxStackDepth());
+        assertEquals(2, ExpressionEvaluator.compile("x*2+y", "x", "y").getMaxStackDepth());
+        assertEquals(1, ExpressionEvaluator.compile("1+2*3").getMaxStackDepth());
+    }
+    
+    
+    @Test
+    public void testEvaluateWithExplicitContext() throws ExpressionException {
+        EvaluationContext context = new EvaluationContext();
+        assertEquals("-4", ExpressionEvaluator.compile("-(2+2)").evaluate(context));
+        assertEquals(0, context.size());
+    }
+    
+    
+    @Test
+    public void testRepeatedLiteralsShareToken() throws ExpressionException {
+        List<Shuntable> tokens = Tokenizer.parseExpression("2.5*2.5");
+        assertSame(tokens.get(0), tokens.get(2));
+        assertEquals("2.5", tokens.get(0).toString());
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testMalformedNumber() throws ExpressionException {
+        ExpressionEvaluator.evaluate("1.2.3");
+    }
+    
+    
+    @Test
+    public void testConstantSubtreesAreFolded() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("(5+4)*2");
+        assertEquals("18", expression.toString());
+        assertEquals("18", expression.evaluate());
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testFoldingKeepsDivisionByZeroError() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("1/0");
+        expression.evaluate();
+    }
+    
+    
+    @Test
+    public void testIntegerPowerOfNegativeBase() throws ExpressionException {
+        assertEquals("-8", ExpressionEvaluator.evaluate("(-2)^3"));
+    }
+    
+    
+    @Test
+    public void testLiteralOperandsAreReduced() throws ExpressionException {
+        assertEquals("1 0 / ^2", ExpressionEvaluator.compile("(1/0)^2").toString());
+        assertEquals("1 0 / 2rt", ExpressionEvaluator.compile("2rt(1/0)").toString());
+        assertEquals("1 0 / E3", ExpressionEvaluator.compile("(1/0)E3").toString());
+    }
+    
+    
+    @Test
+    public void testVariables() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("rate*x+1", "x", "rate");
+        assertEquals("7", expression.evaluate(new Apfloat(2), new Apfloat(3)));
+        assertEquals("11", expression.evaluate(new Apfloat(5), new Apfloat(2)));
+    }
+    
+    
+    @Test
+    public void testVariablesBoundByName() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("2sqrtx", "x");
+        Map<String, Apfloat> values = new HashMap<>();
+        values.put("x", new Apfloat(9));
+        assertEquals("6", expression.evaluate(values));
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testUnboundVariable() throws ExpressionException {
+        ExpressionEvaluator.compile("x+y", "x", "y").evaluate(new HashMap<String, Apfloat>());
+    }
+    
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testVariableNamedAfterBuiltInSymbol() throws ExpressionException {
+        ExpressionEvaluator.compile("pi+1", "pi");
+    }
+    
+    
+    @Test
+    public void testDoubleEvaluation() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("x^2+sqrt(y)", "x", "y");
+        assertEquals(13.0, expression.evaluateDouble(3, 16), 0);
+        assertEquals(65.52, ExpressionEvaluator.evaluateDouble("12.6*5.2"), 1e-12);
+    }
+    
+    
+    @Test
+    public void testDoubleEvaluationFallsBackOnOverflow() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("x^400/x^399", "x");
+        assertEquals(10.0, expression.evaluateDouble(10), 0);
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testDoubleEvaluationReportsMathError() throws ExpressionException {
+        ExpressionEvaluator.compile("1/x", "x").evaluateDouble(0);
+    }
+    
+    
+    @Test
+    public void testIntegerArithmeticIsExact() throws ExpressionException {
+        assertEquals("1", ExpressionEvaluator.evaluate("(2^70+1)-2^70"));
+        assertEquals("1.5511210043330985984E25", ExpressionEvaluator.evaluate("25!"));
+    }
+    
+    
+    @Test
+    public void testIntegerVariables() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("x%3+x/2", "x");
+        assertEquals("3", expression.evaluate(new Apfloat(4)));
+        assertEquals("4.5", expression.evaluate(new Apfloat(7)));
+    }
+    
+    
+    @Test
+    public void testGeneratedProgramMatchesInterpreter() throws ExpressionException {
+        CompiledExpression expression = 
+                ExpressionEvaluator.compile("-x^2.5/(y+1)+2rt(y*x)+r(x)%3+pi", "x", "y");
+        Apfloat x = new Apfloat("1.5", ExpressionEvaluator.PRECISION);
+        Apfloat y = new Apfloat("2.25", ExpressionEvaluator.PRECISION);
+        String interpreted = expression.evaluate(x, y);
+        assertNotNull(expression.generateProgram());
+        assertEquals(interpreted, expression.evaluate(x, y));
+    }
+    
+    
+    @Test
+    public void testHotExpressionIsGenerated() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("x/3", "x");
+        for (int i = 0; i <= CompiledExpression.GENERATION_THRESHOLD; i++)
+            assertEquals("2.5", expression.evaluate(new Apfloat("7.5")));
+        assertNotNull(expression.generateProgram());
+    }
+    
+    
+    @Test
+    public void testColumnEvaluation() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("sqrt(x*x+y*y)/2-1", "x", "y");
+        int rows = 2500;
+        double[] x = new double[rows];
+        double[] y = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            x[i] = i;
+            y[i] = i % 7;
+        }
+        double[] results = expression.evaluateColumns(x, y);
+        assertEquals(rows, results.length);
+        for (int i = 0; i < rows; i++)
+            assertEquals(expression.evaluateDouble(x[i], y[i]), results[i], 0);
+    }
+    
+    
+    @Test
+    public void testColumnEvaluationFallback() throws ExpressionException {
+        CompiledExpression expression = ExpressionEvaluator.compile("x^400/x^399+1/(x-2)", "x");
+        double[] results = expression.evaluateColumns(new double[] { 1, 2, 10 });
+        assertEquals(0, results[0], 1e-12);
+        assertTrue(Double.isNaN(results[1]));
+        assertEquals(10.125, results[2], 1e-12);
+    }
+    
+    
+    @Test
+    public void testBatchEvaluation() {
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            expressions.add(i % 100 == 0 ? i + "/0" : i + "*2");
+        BatchResult result = ExpressionEvaluator.evaluateAll(expressions);
+        assertEquals(1000, result.size());
+        assertEquals(10, result.getErrorCount());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0) {
+                assertFalse(result.isSuccess(i));
+                assertNull(result.getValue(i));
+                assertNotNull(result.getError(i));
+            } else {
+                assertTrue(result.isSuccess(i));
+                assertEquals(Integer.toString(i * 2), result.getValue(i));
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testBatchEvaluationWithOverflow() {
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            expressions.add(i == 500 ? "1E99999999999999999999" : i + "*2");
+        BatchResult result = ExpressionEvaluator.evaluateAll(expressions);
+        assertEquals(1, result.getErrorCount());
+        assertFalse(result.isSuccess(500));
+        assertNotNull(result.getError(500));
+        assertEquals("998", result.getValue(499));
+        assertEquals("1002", result.getValue(501));
+    }
+    
+    
+    @Test
+    public void testFileEvaluation() throws IOException {
+        Path input = Files.createTempFile("expressions", ".txt");
+        Path output = Files.createTempFile("results", ".txt");
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                lines.append(i % 1000 == 0 ? "1/0" : i + "+1");
+                lines.append(i % 2 == 0 ? "\n" : "\r\n");
+            }
+            lines.append("2*3");
+            Files.write(input, lines.toString().getBytes(StandardCharsets.US_ASCII));
+            
+            new FileEvaluator(4).evaluate(input, output);
+            
+            List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+            assertEquals(20001, results.size());
+            for (int i = 0; i < 20000; i++) {
+                if (i % 1000 != 0)
+                    assertEquals(Integer.toString(i + 1), results.get(i));
+            }
+            assertEquals("6", results.get(20000));
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+    
+    
+    @Test
+    public void testFileEvaluationWithOverflow() throws IOException {
+        Path input = Files.createTempFile("expressions", ".txt");
+        Path output = Files.createTempFile("results", ".txt");
+        try {
+            Files.write(input, "1+1\n1E99999999999999999999\n2*3\n".getBytes(
+                    StandardCharsets.US_ASCII));
+            
+            new FileEvaluator(2).evaluate(input, output);
+            
+            List<String> results = Files.readAllLines(output, StandardCharsets.UTF_8);
+            assertEquals(3, results.size());
+            assertEquals("2", results.get(0));
+            try {
+                ExpressionEvaluator.evaluate("1E99999999999999999999");
+                fail();
+            } catch (ExpressionException e) {
+                assertEquals(e.getMessage(), results.get(1));
+            }
+            assertEquals("6", results.get(2));
+        } finally {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+    
+    
+    @Test
+    public void testTokenCursor() throws ExpressionException {
+        TokenCursor cursor = Tokenizer.cursor("-12 sqrt(4)", Collections.<Variable>emptyList(), 
+                ExpressionEvaluator.PRECISION);
+        assertSame(Operator.NEGATE, cursor.next());
+        assertEquals("12", cursor.next().toString());
+        assertEquals(1, cursor.getTokenIndex());
+        assertSame(Operator.MULTIPLY, cursor.next());
+        assertSame(Operator.SQRT, cursor.next());
+        assertEquals(4, cursor.getTokenIndex());
+        assertSame(Parentheses.LEFT, cursor.next());
+        assertEquals("4", cursor.next().toString());
+        assertSame(Parentheses.RIGHT, cursor.next());
+        assertNull(cursor.next());
+    }
+    
+    
+    @Test
+    public void testPrecision() throws ExpressionException {
+        assertEquals("0.3333", ExpressionEvaluator.evaluate("1/3", 5));
+        assertEquals("3.1415926535897932384626433832795028841971693993751", 
+                ExpressionEvaluator.evaluate("pi", 51));
+        assertEquals("6.28318530717958647692528676655900576839433879875", 
+                ExpressionEvaluator.evaluate("2*pi", 50));
+    }
+    
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecisionTooLow() throws ExpressionException {
+        ExpressionEvaluator.compile("1", 1);
+    }
+    
+    
+    @Test
+    public void testAuxiliaryValuesAreCached() throws ExpressionException {
+        assertSame(AuxiliaryValue.LN_10.getValue(40), AuxiliaryValue.LN_10.getValue(40));
+        assertEquals("4", ExpressionEvaluator.evaluate("log10000", 40));
+        assertEquals("180", ExpressionEvaluator.evaluate("d(pi)", 40));
+    }
+    
+    
+    @Test
+    public void testFactorialOfComputedValue() throws ExpressionException {
+        assertEquals("120", ExpressionEvaluator.evaluate("(2.5*2)!"));
+        assertEquals("2.6525285981219105864E32", ExpressionEvaluator.evaluate("(1.5*20)!"));
+        assertEquals("30", ExpressionEvaluator.evaluate("(1.5*20)!/(1.5*20-1)!"));
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testFactorialOfFraction() throws ExpressionException {
+        ExpressionEvaluator.evaluate("(0.5*3)!");
+    }
+    
+    
+    @Test
+    public void testEvaluateToValue() throws ExpressionException {
+        EvaluationResult result = ExpressionEvaluator.evaluateToValue("1/8+2");
+        assertEquals(2.125, result.doubleValue(), 0);
+        assertEquals(2, result.longValue());
+        assertEquals(ExpressionEvaluator.evaluate("1/8+2"), result.toString());
+        assertEquals(ExpressionEvaluator.evaluate("2^100"), 
+                ExpressionEvaluator.evaluateToValue("2^100").toString());
+        assertEquals("0", ExpressionEvaluator.evaluateToValue("").toString());
+        assertEquals(0, ExpressionEvaluator.evaluateToValue("").doubleValue(), 0);
+    }
+    
+    
+    @Test
+    public void testParallelEvaluation() throws ExpressionException {
+        CompiledExpression expression = 
+                ExpressionEvaluator.compile("sin(x)*cos(x)+ln(x)", 2000, "x");
+        Apfloat x = new Apfloat("1.5");
+        assertEquals(expression.evaluate(x), expression.evaluateParallel(x));
+        assertEquals("3", ExpressionEvaluator.compile("1+2", 2000).evaluateParallel());
+    }
+    
+    
+    @Test(expected = ExpressionException.class)
+    public void testParallelEvaluationError() throws ExpressionException {
+        ExpressionEvaluator.compile("sin(1)/(cos(1)-cos(1))", 2000).evaluateParallel();
+    }
+    
+    
+    @Test
+    public void testEvaluationMetrics() throws ExpressionException {
+        EvaluationMetrics metrics = EvaluationMetrics.getInstance();
+        metrics.reset();
+        metrics.setEnabled(true);
+        try {
+            CompiledExpression expression = 
+                    ExpressionEvaluator.compileUncached("x^2+2", 30, "x");
+            assertEquals("2.25", expression.evaluate(new Apfloat("0.5", 30)));
+            try {
+                ExpressionEvaluator.compileUncached("2+$", 30);
+                fail();
+            } catch (ExpressionException e) {
+                // Expected.
+            }
+        } finally {
+            metrics.setEnabled(false);
+        }
+        for (EvaluationMetrics.Phase phase : EvaluationMetrics.Phase.values())
+            assertTrue(metrics.getPhaseCounts().get(phase.name()) > 0);
+        assertEquals(1L, (long) metrics.getOperatorCounts().get("POW"));
+        assertEquals(1L, (long) metrics.getOperatorCounts().get("PLUS"));
+        assertEquals(1L, (long) metrics.getErrorCounts().get("Syntax error at index []."));
+        
+        // Nothing is recorded once metrics are disabled.
+        ExpressionEvaluator.evaluate("1+2");
+        assertEquals(1L, (long) metrics.getOperatorCounts().get("PLUS"));
+    }
+    
+    
+    @Test
+    public void testFlightRecorderEvents() throws IOException, ExpressionException {
+        Path file = Files.createTempFile("expression", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(EvaluationEvent.NAME).withThreshold(Duration.ZERO);
+            recording.enable(OperatorEvent.NAME).withThreshold(Duration.ZERO);
+            recording.start();
+            assertEquals("6", ExpressionEvaluator.evaluate("3!", 30));
+            ExpressionEvaluator.compileUncached("x*1000", 30, "x").evaluate(new Apfloat("0.01"));
+            recording.stop();
+            recording.dump(file);
+            
+            boolean evaluation = false;
+            boolean operator = false;
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                if (name.equals(EvaluationEvent.NAME) 
+                        && event.getString("expression").equals("3!")) {
+                    assertEquals(2, event.getInt("tokenCount"));
+                    assertEquals(30, event.getInt("precision"));
+                    evaluation = true;
+                } else if (name.equals(OperatorEvent.NAME) 
+                        && event.getString("operator").equals("MULTIPLY")) {
+                    assertEquals(-1, event.getLong("firstOperandMagnitude"));
+                    assertEquals(4, event.getLong("secondOperandMagnitude"));
+                    operator = true;
+                }
+            }
+            assertTrue(evaluation);
+            assertTrue(operator);
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    
+    @Test
+    public void testEvaluationBudget() throws ExpressionException {
+        EvaluationBudget budget = new EvaluationBudget(1000, 1_000_000, Duration.ofMinutes(1));
+        assertEquals("1025", ExpressionEvaluator.evaluate("2^10+1", 21, budget));
+        assertEquals("3628800", ExpressionEvaluator.evaluate("10!", 21, budget));
+        try {
+            ExpressionEvaluator.evaluate("9^9^9", 21, budget);
+            fail();
+        } catch (BudgetExceededException e) {
+            assertEquals(BudgetExceededException.Limit.DIGITS, e.getLimit());
+        }
+        try {
+            ExpressionEvaluator.compile("sin(x)", 1000, "x").evaluate(
+                    new EvaluationBudget(1000, 1000, null), new Apfloat("0.5", 1000));
+            fail();
+        } catch (BudgetExceededException e) {
+            assertEquals(BudgetExceededException.Limit.WORK, e.getLimit());
+        }
+    }
+    
+    
+    @Test
+    public void testExpensiveConstantsAreNotFolded() throws ExpressionException {
+        
+        // 9^9 is folded, but 9^387420489 is left for evaluation.
+        CompiledExpression expression = ExpressionEvaluator.compileUncached("9^9^9", 21);
+        assertTrue(expression.toString().startsWith("9 "));
+        assertEquals("387420489", ExpressionEvaluator.compileUncached("9^9", 21).toString());
+    }
+    
+    
+    @Test
+    public void testMalformedExpressions() {
+        String[] expressions = {"3+", ")(", "sin", "(", "((1)", "1)", "2*)3", "3 4", "!3", "2(3)"};
+        int[] indices = {2, 0, 3, 1, 4, 1, 2, 2, 0, 1};
+        for (int i = 0; i < expressions.length; i++) {
+            try {
+                ExpressionEvaluator.evaluate(expressions[i]);
+                fail(expressions[i]);
+            } catch (ExpressionException e) {
+                assertEquals("Syntax error at index [" + indices[i] + "].", e.getMessage());
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testSubtractionAfterFactorial() throws ExpressionException {
+        assertEquals("4", ExpressionEvaluator.evaluate("3!-2"));
+        assertEquals("-4", ExpressionEvaluator.evaluate("-3!+2"));
+    }
+    
+    
+    @Test(timeout = 10000)
+    public void testLargeIntegerPowers() throws ExpressionException {
+        
+        // Far more digits than the precision keeps, so these are not worked out exactly.
+        assertEquals("1E3000000", ExpressionEvaluator.evaluate("10^3000000"));
+        assertEquals("9.7049196389007115641E903089", ExpressionEvaluator.evaluate("2^3000000"));
+        assertEquals("9.3326215443944152682E157", ExpressionEvaluator.evaluate("100!"));
+        assertEquals("717897987691852588770000", ExpressionEvaluator.evaluate("3^50"));
+    }
+    
+    
+    @Test
+    public void testNegativeExponents() throws ExpressionException {
+        assertEquals("0.002", ExpressionEvaluator.evaluate("2E-3"));
+        assertEquals("0.00002", ExpressionEvaluator.evaluate("1E-5*2"));
+        assertEquals("-0.25", ExpressionEvaluator.evaluate("-2^-2"));
+    }
+    
+    
+    @Test
+    public void testDoubleUnderflowFallsBack() throws ExpressionException {
+        
+        // x E -400 underflows a double, but its product with 10^300 does not.
+        CompiledExpression expression = ExpressionEvaluator.compile("xE-400*10^300", "x");
+        assertEquals(3e-100, expression.evaluateDouble(3), 1e-112);
+        double[] results = expression.evaluateColumns(new double[] { 3, 5 });
+        assertEquals(3e-100, results[0], 1e-112);
+        assertEquals(5e-100, results[1], 1e-112);
+    }
+    
+    
+    @Test
+    public void testFactorialErrors() {
+        String[] expressions = {"(0-3)!", "(0.5*3)!", "(0-3)!+1"};
+        String[] messages = {"Factorial of negative number", "Math error.", 
+            "Factorial of negative number"};
+        for (int i = 0; i < expressions.length; i++) {
+            try {
+                ExpressionEvaluator.evaluate(expressions[i]);
+                fail(expressions[i]);
+            } catch (ExpressionException e) {
+                assertEquals(messages[i], e.getMessage());
+            }
+        }
+    }
+    
+    
+    @Test
+    public void testLiteralTextIsKept() throws ExpressionException {
+        assertEquals("007 x + 7 *", 
+                ExpressionEvaluator.compileUncached("(007+x)*7", 21, "x").toString());
+        assertEquals("7 x + 007 *", 
+                ExpressionEvaluator.compileUncached("(7+x)*007", 21, "x").toString());
+        assertEquals("123456 x +", 
+                ExpressionEvaluator.compileUncached("123456+x", 5, "x").toString());
+        assertEquals("14", ExpressionEvaluator.evaluate("007+7"));
+    }
+    
+    
+    @Test
+    public void testTrigOfLargeIntegers() throws ExpressionException {
+        // Each expression, with its value to 40 digits.
+        String[][] references = {
+            {"sin(2^70)", "-0.9981794021933067599641604936283969880501"},
+            {"cos(2^75)", "-0.3526962858973135235752587915171221205618"},
+            {"sin(25!)", "-0.3829280683954652822690553342056203620816"},
+            {"sin(10^30)", "-0.09011690191213805803038642895298733027440"},
+            {"cos(10^25)", "-0.6672990942648233120970585698470645229672"},
+        };
+        for (String[] reference : references) {
+            EvaluationResult result = ExpressionEvaluator.evaluateToValue(reference[0]);
+            Apfloat value = result.getValue();
+            Apfloat error = ApfloatMath.abs(value.subtract(new Apfloat(reference[1], 40)));
+            assertTrue(reference[0] + " = " + value, error.compareTo(new Apfloat("1e-19")) < 0);
+            assertTrue(value.precision() <= result.getPrecision());
+        }
+    }
+    
+    
+    @Test(timeout = 10000)
+    public void testLargeFactorialsAreRounded() throws ExpressionException {
+        EvaluationBudget budget = 
+                new EvaluationBudget(100_000, 1_000_000_000L, Duration.ofSeconds(2));
+        assertEquals(178075.6217371987, Double.parseDouble(
+                ExpressionEvaluator.evaluate("ln(20000!)", 21, budget)), 1e-9);
+        assertEquals(77337.25988195615, Double.parseDouble(
+                ExpressionEvaluator.evaluate("log(20000!)", 21, budget)), 1e-10);
+        assertEquals("20000", ExpressionEvaluator.evaluate("20000!/19999!", 21, budget));
+        
+        // Factorials keep the working precision after their integer part, unless they are large.
+        assertEquals(26 + 21, Operator.FACTORIAL.apply(new Apfloat(25, 21), 21).precision());
+        assertEquals(21, Operator.FACTORIAL.apply(new Apfloat(20000, 21), 21).precision());
+    }
 }